@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+The code under benchmark, as seen from the JMH benchmarks in bench/benchmarks
+JMH will not generate benchmarks in the default package, and a named package cannot refer to the classes in it,
+so the benchmarks call these static methods through method handles and hold any state of ours as an Object
+ */
+public class BenchTargets {
+
+    private static final String[] OPTION_NAMES = {"A", "B", "C", "D"};
+    private static final int FIRST_PORT = 12000;
+
+    private static long sink;
+    private static final VoteSink VOTE_SINK = (port, optionId) -> sink += port + optionId;
+
+    private BenchTargets() {
+    }
+
+    public static String getProtocol(String line) {
+        return Coordinator.getProtocol(line);
+    }
+
+    public static String[] getData(String line) {
+        return Coordinator.getData(line);
+    }
+
+    /*
+    A VOTE line with a vote from each of the given number of participants, cycling through the options
+     */
+    public static String voteLine(int votes) {
+        StringBuilder line = new StringBuilder("VOTE");
+        for (int i = 0; i < votes; i++) {
+            line.append(" <").append(FIRST_PORT + i).append(", ").append(OPTION_NAMES[i % OPTION_NAMES.length]).append(">");
+        }
+        return line.toString();
+    }
+
+    public static Object newOptionTable() {
+        OptionDictionary options = new OptionDictionary();
+        for (String option : OPTION_NAMES) {
+            options.getId(option);
+        }
+        return options;
+    }
+
+    public static Object newVoteParser(Object options) {
+        return new TextVoteParser((OptionDictionary) options);
+    }
+
+    /*
+    Parses a VOTE line with the streaming parser, returning the number of votes read
+     */
+    public static int parseVotes(Object parser, byte[] line) {
+        return ((TextVoteParser) parser).parse(line, 0, line.length, VOTE_SINK);
+    }
+
+    /*
+    Parses a VOTE line the way Participant did before the streaming parser, with getData and parseInt
+     */
+    public static int parseVotesWithGetData(Object options, String line) {
+        OptionDictionary optionTable = (OptionDictionary) options;
+        String[] data = Coordinator.getData(line);
+        List<Vote> votes = new ArrayList<>();
+        for (int i = 0; i + 1 < data.length; i += 2) {
+            votes.add(new Vote(Integer.parseInt(data[i]), data[i + 1], optionTable.getId(data[i + 1])));
+        }
+        return votes.size();
+    }
+
+    /*
+    The votes a participant receives in a round where every one of the given number of participants
+    sends it every vote, so all but the first copy of each vote are duplicates
+     */
+    public static List<Object> roundOfVotes(Object options, int participants) {
+        OptionDictionary optionTable = (OptionDictionary) options;
+        List<Object> votes = new ArrayList<>();
+        for (int sender = 0; sender < participants; sender++) {
+            for (int voter = 0; voter < participants; voter++) {
+                String option = OPTION_NAMES[voter % OPTION_NAMES.length];
+                votes.add(new Vote(FIRST_PORT + voter, option, optionTable.getId(option)));
+            }
+        }
+        return votes;
+    }
+
+    public static Object newInstance(Object options, int participants) {
+        Map<Integer, Integer> voterIndex = new HashMap<>();
+        for (int voter = 0; voter < participants; voter++) {
+            voterIndex.put(FIRST_PORT + voter, voter);
+        }
+        List<String[]> questions = new ArrayList<>();
+        questions.add(OPTION_NAMES);
+        return new ConsensusInstance(0, (OptionDictionary) options, OPTION_NAMES.length, questions, voterIndex);
+    }
+
+    /*
+    Hands a round of votes to an instance and keeps the unique ones, returning how many were new
+     */
+    public static int removeDuplicateNewVotes(Object instance, List<Object> votes) {
+        ConsensusInstance consensus = (ConsensusInstance) instance;
+        for (Object vote : votes) {
+            consensus.addNewVote((Vote) vote);
+        }
+        consensus.removeDuplicateNewVotes();
+        int unique = consensus.getNewVotes().size();
+        consensus.clearNewVotes();
+        return unique;
+    }
+
+    public static String decideMajorityVote(Object instance) {
+        return ((ConsensusInstance) instance).decideMajorityVote();
+    }
+
+    public static List<Integer> getPortsUsed(Object instance) {
+        return ((ConsensusInstance) instance).getPortsUsed();
+    }
+
+    public static String getDetailsForClient(List<Socket> clients, Map<Socket, Integer> clientsConnSockets, Socket client) {
+        return Coordinator.getDetailsForClient(clients, clientsConnSockets, client);
+    }
+
+    /*
+    Starts a logger server on a free UDP port in this JVM and points both loggers at it, returning the port
+     */
+    public static int startLogging(int processId, int timeout) throws IOException {
+        int port;
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Thread server = new Thread(() -> new UDPLoggerServer(Integer.toString(port)), "logger-server");
+        server.setDaemon(true);
+        server.start();
+        CoordinatorLogger.initLogger(port, processId, timeout);
+        ParticipantLogger.initLogger(port, processId + 1, timeout);
+        return port;
+    }
+
+    public static void coordinatorMessageSent(int destinationPort, String message) {
+        CoordinatorLogger.getLogger().messageSent(destinationPort, message);
+    }
+
+    public static void participantMessageSent(int destinationPort, String message) {
+        ParticipantLogger.getLogger().messageSent(destinationPort, message);
+    }
+
+    /*
+    The participants sent in DETAILS, and the votes of a round, for the given number of participants
+     */
+    public static List<Integer> participantIds(int participants) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < participants; i++) {
+            ids.add(FIRST_PORT + i);
+        }
+        return ids;
+    }
+
+    public static List<Object> votes(int participants) {
+        List<Object> votes = new ArrayList<>();
+        for (int voter = 0; voter < participants; voter++) {
+            votes.add(new Vote(FIRST_PORT + voter, OPTION_NAMES[voter % OPTION_NAMES.length], voter % OPTION_NAMES.length));
+        }
+        return votes;
+    }
+
+    public static void coordinatorDetailsSent(int destinationParticipantId, List<Integer> participantIds) {
+        CoordinatorLogger.getLogger().detailsSent(destinationParticipantId, participantIds);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void participantVotesSent(int destinationParticipantId, List<Object> votes) {
+        ParticipantLogger.getLogger().votesSent(destinationParticipantId, (List<Vote>) (List<?>) votes);
+    }
+}
@@ -0,0 +1,10 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Fork;
+
+/*
+The same logging as LoggerBenchmark, written as binary records to an EventLog instead of formatted and shipped
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Dlogger.echo=false", "-Dlogger.format=binary"})
+public class BinaryLoggerBenchmark extends LoggerBenchmark {
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Building the DETAILS for one participant out of every participant that joined
+The coordinator builds one for every participant, so the whole fan out costs participants times this
+The sockets are never connected, only their identity is used
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DetailsBenchmark {
+
+    private static final MethodHandle GET_DETAILS_FOR_CLIENT = Targets.find("getDetailsForClient", String.class, List.class, Map.class, Socket.class);
+
+    @Param({"10", "1000", "10000"})
+    int participants;
+
+    private List<Socket> clients;
+    private Map<Socket, Integer> clientsConnSockets;
+    private Socket client;
+
+    @Setup
+    public void setUp() {
+        clients = new ArrayList<>();
+        clientsConnSockets = new HashMap<>();
+        for (int i = 0; i < participants; i++) {
+            Socket socket = new Socket();
+            clients.add(socket);
+            clientsConnSockets.put(socket, 12000 + i);
+        }
+        client = clients.get(participants / 2);
+    }
+
+    @Benchmark
+    public String getDetailsForClient() throws Throwable {
+        return (String) GET_DETAILS_FOR_CLIENT.invokeExact(clients, clientsConnSockets, client);
+    }
+}
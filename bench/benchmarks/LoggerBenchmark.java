@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/*
+Logging a sent message, DETAILS for 100 participants and a round of 100 votes with CoordinatorLogger and ParticipantLogger,
+each writing its local log file and shipping the message through its UDPLoggerClient to a UDPLoggerServer in the same JVM
+The logger.* startup options apply, e.g. -Djmh.args="-jvmArgsAppend -Dlogger.async=false Logger"
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Dlogger.echo=false")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LoggerBenchmark {
+
+    private static final MethodHandle START_LOGGING = Targets.find("startLogging", int.class, int.class, int.class);
+    private static final MethodHandle COORDINATOR_MESSAGE_SENT = Targets.find("coordinatorMessageSent", void.class, int.class, String.class);
+    private static final MethodHandle PARTICIPANT_MESSAGE_SENT = Targets.find("participantMessageSent", void.class, int.class, String.class);
+    private static final MethodHandle PARTICIPANT_IDS = Targets.find("participantIds", List.class, int.class);
+    private static final MethodHandle VOTES = Targets.find("votes", List.class, int.class);
+    private static final MethodHandle COORDINATOR_DETAILS_SENT = Targets.find("coordinatorDetailsSent", void.class, int.class, List.class);
+    private static final MethodHandle PARTICIPANT_VOTES_SENT = Targets.find("participantVotesSent", void.class, int.class, List.class);
+
+    private static final int COORDINATOR_PORT = 12345;
+    private static final int TIMEOUT = 5000;
+    private static final String MESSAGE = "VOTE <12346, A> <12347, B> <12348, C>";
+    private static final int PARTICIPANTS = 100;
+
+    private List<?> participantIds;
+    private List<?> votes;
+
+    @Setup
+    public void setUp() throws Throwable {
+        START_LOGGING.invoke(COORDINATOR_PORT, TIMEOUT);
+        participantIds = (List<?>) PARTICIPANT_IDS.invoke(PARTICIPANTS);
+        votes = (List<?>) VOTES.invoke(PARTICIPANTS);
+    }
+
+    @Benchmark
+    public void coordinatorMessageSent() throws Throwable {
+        COORDINATOR_MESSAGE_SENT.invokeExact(12346, MESSAGE);
+    }
+
+    @Benchmark
+    public void participantMessageSent() throws Throwable {
+        PARTICIPANT_MESSAGE_SENT.invokeExact(COORDINATOR_PORT, MESSAGE);
+    }
+
+    @Benchmark
+    public void coordinatorDetailsSent() throws Throwable {
+        COORDINATOR_DETAILS_SENT.invokeExact(12346, (List) participantIds);
+    }
+
+    @Benchmark
+    public void participantVotesSent() throws Throwable {
+        PARTICIPANT_VOTES_SENT.invokeExact(12346, (List) votes);
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+
+/*
+Parsing of a received VOTE line: Coordinator.getProtocol and getData, the streaming TextVoteParser,
+and the getData and parseInt path the parser replaced
+The two vote parsers parse the same number of votes every invocation, so their scores, and gc.alloc.rate.norm under -prof gc, are per vote
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParsingBenchmark {
+
+    private static final MethodHandle VOTE_LINE = Targets.find("voteLine", String.class, int.class);
+    private static final MethodHandle GET_PROTOCOL = Targets.find("getProtocol", String.class, String.class);
+    private static final MethodHandle GET_DATA = Targets.find("getData", String[].class, String.class);
+    private static final MethodHandle NEW_OPTION_TABLE = Targets.find("newOptionTable", Object.class);
+    private static final MethodHandle NEW_VOTE_PARSER = Targets.find("newVoteParser", Object.class, Object.class);
+    private static final MethodHandle PARSE_VOTES = Targets.find("parseVotes", int.class, Object.class, byte[].class);
+    private static final MethodHandle PARSE_VOTES_WITH_GET_DATA = Targets.find("parseVotesWithGetData", int.class, Object.class, String.class);
+
+    //The votes parsed by every invocation of the vote parsers, as VOTES_PER_INVOCATION / votes lines
+    private static final int VOTES_PER_INVOCATION = 100;
+
+    //The number of votes in the line
+    @Param({"1", "10", "100"})
+    int votes;
+
+    private int lines;
+    private String line;
+    private byte[] bytes;
+    private Object options;
+    private Object parser;
+
+    @Setup
+    public void setUp() throws Throwable {
+        lines = VOTES_PER_INVOCATION / votes;
+        line = (String) VOTE_LINE.invokeExact(votes);
+        bytes = line.getBytes();
+        options = (Object) NEW_OPTION_TABLE.invokeExact();
+        parser = (Object) NEW_VOTE_PARSER.invokeExact(options);
+    }
+
+    @Benchmark
+    public String getProtocol() throws Throwable {
+        return (String) GET_PROTOCOL.invokeExact(line);
+    }
+
+    @Benchmark
+    public String[] getData() throws Throwable {
+        return (String[]) GET_DATA.invokeExact(line);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOTES_PER_INVOCATION)
+    public int textVoteParser() throws Throwable {
+        int parsed = 0;
+        for (int i = 0; i < lines; i++) {
+            parsed += (int) PARSE_VOTES.invokeExact(parser, bytes);
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VOTES_PER_INVOCATION)
+    public int getDataAndParseInt() throws Throwable {
+        int parsed = 0;
+        for (int i = 0; i < lines; i++) {
+            parsed += (int) PARSE_VOTES_WITH_GET_DATA.invokeExact(options, line);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/*
+The vote handling a participant does every round in a ConsensusInstance: dropping the duplicates among the votes
+received, then deciding the majority and listing the ports used once the rounds are over
+Every participant sends every vote, so a round holds participants * participants votes of which participants are new
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TallyBenchmark {
+
+    private static final MethodHandle NEW_OPTION_TABLE = Targets.find("newOptionTable", Object.class);
+    private static final MethodHandle ROUND_OF_VOTES = Targets.find("roundOfVotes", List.class, Object.class, int.class);
+    private static final MethodHandle NEW_INSTANCE = Targets.find("newInstance", Object.class, Object.class, int.class);
+    private static final MethodHandle REMOVE_DUPLICATE_NEW_VOTES = Targets.find("removeDuplicateNewVotes", int.class, Object.class, List.class);
+    private static final MethodHandle DECIDE_MAJORITY_VOTE = Targets.find("decideMajorityVote", String.class, Object.class);
+    private static final MethodHandle GET_PORTS_USED = Targets.find("getPortsUsed", List.class, Object.class);
+
+    @Param({"10", "100", "300"})
+    int participants;
+
+    private Object options;
+    private List<Object> round;
+
+    //An instance that has already seen every vote, for deciding
+    private Object decided;
+
+    //An instance that has not seen any vote, replaced before every call that adds votes to it
+    private Object fresh;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        options = (Object) NEW_OPTION_TABLE.invokeExact();
+        round = (List<Object>) ROUND_OF_VOTES.invokeExact(options, participants);
+        decided = (Object) NEW_INSTANCE.invokeExact(options, participants);
+        REMOVE_DUPLICATE_NEW_VOTES.invoke(decided, round);
+    }
+
+    @Setup(Level.Invocation)
+    public void newInstance() throws Throwable {
+        fresh = (Object) NEW_INSTANCE.invokeExact(options, participants);
+    }
+
+    @Benchmark
+    public int removeDuplicateNewVotes() throws Throwable {
+        return (int) REMOVE_DUPLICATE_NEW_VOTES.invokeExact(fresh, round);
+    }
+
+    @Benchmark
+    public String decideMajorityVote() throws Throwable {
+        return (String) DECIDE_MAJORITY_VOTE.invokeExact(decided);
+    }
+
+    @Benchmark
+    public List<?> getPortsUsed() throws Throwable {
+        return (List<?>) GET_PORTS_USED.invokeExact(decided);
+    }
+}
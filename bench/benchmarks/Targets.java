@@ -0,0 +1,24 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/*
+Looks up the static methods of BenchTargets, which is in the default package with the code under benchmark
+Every handle is kept in a static final field and called with invokeExact, so the JIT can inline through it
+ */
+final class Targets {
+
+    private Targets() {
+    }
+
+    static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> targets = Class.forName("BenchTargets");
+            return MethodHandles.publicLookup().findStatic(targets, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+The compact binary framing that can be used in place of text lines once it has been negotiated at JOIN
+A participant asks for it with "JOIN <port> BINARY" and the coordinator only grants it if every participant asked,
+by sending DETAILS and VOTE_OPTIONS as binary frames, after which every message in the system is binary
+
+Every frame is a zero byte, which never starts a text line, then the payload length and the payload, all as varints
+The payload is a type byte followed by
+    DETAILS       count, ports
+    VOTE_OPTIONS  count, (length, UTF-8 bytes) per option
+    VOTE          count, (port, option id) per vote
+    OUTCOME       option id, count, ports
+    PROPOSAL      instance
+    VOTE_FOR      instance, then as VOTE
+    OUTCOME_FOR   instance, then as OUTCOME
+    DECIDED       instance
+Option ids are positions in VOTE_OPTIONS
+ */
+class BinaryProtocol {
+
+    static final int MAGIC = 0;
+    static final String JOIN_FLAG = "BINARY";
+
+    static final int DETAILS = 1;
+    static final int VOTE_OPTIONS = 2;
+    static final int VOTE = 3;
+    static final int OUTCOME = 4;
+    static final int PROPOSAL = 5;
+    static final int VOTE_FOR = 6;
+    static final int OUTCOME_FOR = 7;
+    static final int DECIDED = 8;
+
+    //Enabled on a participant with -Dprotocol.binary=true
+    static final boolean REQUESTED = Boolean.getBoolean("protocol.binary");
+
+    private BinaryProtocol() {
+    }
+
+    static byte[] encodeDetails(List<Integer> ports) {
+        Frame frame = new Frame(DETAILS);
+        frame.writeVarint(ports.size());
+        for (int port : ports) {
+            frame.writeVarint(port);
+        }
+        return frame.finish();
+    }
+
+    static byte[] encodeVoteOptions(String[] options) {
+        Frame frame = new Frame(VOTE_OPTIONS);
+        frame.writeVarint(options.length);
+        for (String option : options) {
+            byte[] bytes = option.getBytes(StandardCharsets.UTF_8);
+            frame.writeVarint(bytes.length);
+            frame.write(bytes, 0, bytes.length);
+        }
+        return frame.finish();
+    }
+
+    static byte[] encodeVotes(List<Vote> votes) {
+        Frame frame = new Frame(VOTE);
+        writeVotes(frame, votes);
+        return frame.finish();
+    }
+
+    static byte[] encodeOutcome(int optionId, List<Integer> ports) {
+        Frame frame = new Frame(OUTCOME);
+        writeOutcome(frame, optionId, ports);
+        return frame.finish();
+    }
+
+    static byte[] encodeProposal(int instance) {
+        Frame frame = new Frame(PROPOSAL);
+        frame.writeVarint(instance);
+        return frame.finish();
+    }
+
+    static byte[] encodeDecided(int instance) {
+        Frame frame = new Frame(DECIDED);
+        frame.writeVarint(instance);
+        return frame.finish();
+    }
+
+    static byte[] encodeVotesFor(int instance, List<Vote> votes) {
+        Frame frame = new Frame(VOTE_FOR);
+        frame.writeVarint(instance);
+        writeVotes(frame, votes);
+        return frame.finish();
+    }
+
+    static byte[] encodeOutcomeFor(int instance, int optionId, List<Integer> ports) {
+        Frame frame = new Frame(OUTCOME_FOR);
+        frame.writeVarint(instance);
+        writeOutcome(frame, optionId, ports);
+        return frame.finish();
+    }
+
+    private static void writeVotes(Frame frame, List<Vote> votes) {
+        frame.writeVarint(votes.size());
+        for (Vote vote : votes) {
+            frame.writeVarint(vote.getParticipantPort());
+            frame.writeVarint(vote.getOptionId());
+        }
+    }
+
+    private static void writeOutcome(Frame frame, int optionId, List<Integer> ports) {
+        frame.writeVarint(optionId);
+        frame.writeVarint(ports.size());
+        for (int port : ports) {
+            frame.writeVarint(port);
+        }
+    }
+
+    /*
+    Decodes a frame payload, i.e. everything after the length
+     */
+    static Message decode(byte[] payload, int length) {
+        Cursor cursor = new Cursor(payload, length);
+        int type = cursor.readByte();
+        int count;
+        switch (type) {
+            case DETAILS:
+                return Message.binary(Message.DETAILS, cursor.readInts(cursor.readVarint()), null);
+            case VOTE_OPTIONS:
+                count = cursor.readVarint();
+                String[] options = new String[count];
+                for (int i = 0; i < count; i++) {
+                    int size = cursor.readVarint();
+                    options[i] = new String(payload, cursor.position, size, StandardCharsets.UTF_8);
+                    cursor.position += size;
+                }
+                return Message.binary(Message.VOTE_OPTIONS, null, options);
+            case VOTE:
+                return Message.binary(Message.VOTE, cursor.readInts(cursor.readVarint() * 2), null);
+            case OUTCOME:
+                return Message.binary(Message.OUTCOME, readOutcome(cursor), null);
+            case PROPOSAL:
+                return Message.binary(Message.PROPOSAL, cursor.readVarint(), null);
+            case DECIDED:
+                return Message.binary(Message.DECIDED, cursor.readVarint(), null);
+            case VOTE_FOR:
+                int instance = cursor.readVarint();
+                return Message.binary(Message.VOTE_FOR, instance, cursor.readInts(cursor.readVarint() * 2));
+            case OUTCOME_FOR:
+                instance = cursor.readVarint();
+                return Message.binary(Message.OUTCOME_FOR, instance, readOutcome(cursor));
+            default:
+                throw new IllegalArgumentException("Unknown binary message type " + type);
+        }
+    }
+
+    private static int[] readOutcome(Cursor cursor) {
+        int optionId = cursor.readVarint();
+        int count = cursor.readVarint();
+        int[] values = new int[count + 1];
+        values[0] = optionId;
+        for (int i = 1; i <= count; i++) {
+            values[i] = cursor.readVarint();
+        }
+        return values;
+    }
+
+    /*
+    Builds the payload of a frame and then prefixes the magic byte and length
+     */
+    private static class Frame extends ByteArrayOutputStream {
+
+        Frame(int type) {
+            super(64);
+            write(type);
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        byte[] finish() {
+            Frame framed = new Frame(MAGIC);
+            framed.writeVarint(count);
+            framed.write(buf, 0, count);
+            return framed.toByteArray();
+        }
+    }
+
+    private static class Cursor {
+        final byte[] payload;
+        final int length;
+        int position;
+
+        Cursor(byte[] payload, int length) {
+            this.payload = payload;
+            this.length = length;
+        }
+
+        int readByte() {
+            if (position >= length) {
+                throw new IllegalArgumentException("Truncated binary message");
+            }
+            return payload[position++] & 0xFF;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int[] readInts(int count) {
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = readVarint();
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+The vote state of a single consensus decision
+A participant keeps one of these for its one vote, or one per proposal when the coordinator runs many instances
+over the same connections, started with -Dconsensus.instances=<number of proposals>
+ */
+class ConsensusInstance {
+
+    //How many proposals the coordinator issues in multi-instance mode, 0 for a single vote
+    static final int PROPOSALS = Integer.getInteger("consensus.instances", 0);
+
+    //How many of those proposals may be undecided at once, with their rounds interleaved on the same connections
+    static final int PIPELINE_DEPTH = Math.max(1, Integer.getInteger("consensus.pipeline", 1));
+
+    //How many crashes a vote must tolerate, so it runs that many rounds plus one, -1 to run a round per other participant
+    static final int FAULT_BOUND = Integer.getInteger("consensus.faults", -1);
+
+    //Whether a participant stops early after a round with no new crashes and no new votes, telling its peers with DECIDED
+    static final boolean EARLY_DECIDING = Boolean.getBoolean("consensus.earlyDeciding");
+
+    //Separates the questions of a batch in VOTE_OPTIONS, and the choices for each question in a batch vote and outcome
+    static final String QUESTION_SEPARATOR = "/";
+
+    private final int id;
+
+    //When voting on this instance started, as a System.nanoTime() reading
+    private final long startedAt = System.nanoTime();
+
+    //Every voting option in the order sent in VOTE_OPTIONS, followed by any unknown options received from other participants
+    private final OptionDictionary optionTable;
+    private final int knownOptions;
+
+    //The options of every question when voting on a batch of them, null for a single question
+    private final List<String[]> questions;
+
+    //A list of all unique votes overall
+    private final List<Vote> votes;
+
+    //A list of all votes received this round
+    private List<Vote> newVotes;
+
+    //The packed key of every vote in votes, for constant time duplicate checks
+    private final LongHashSet voteKeys;
+
+    //The number of votes for every option in optionTable, counted as each vote is added to votes
+    private int[] voteCount;
+
+    //For a batch, the number of votes for every option of every question, and for any option a question does not list
+    private int[][] batchCount;
+    private List<TreeMap<String, Integer>> unknownCount;
+    //For a batch, the index of every option of every question, so each choice of a vote is counted without a search
+    private List<Map<String, Integer>> optionIndex;
+
+    //The ports of the participants whose votes are in votes, in the order they were added
+    private final List<Integer> portsUsed;
+    private final LongHashSet seenPorts;
+
+    //The bit of every participant in DETAILS, and this participant, in the bitmaps of peerKnowledge
+    private final Map<Integer, Integer> voterIndex;
+
+    //For every other participant, by port, a bitmap of the participants whose votes it is known to hold
+    //A participant holds every vote it has sent and every vote sent to it, so those never need sending to it again
+    private final Map<Integer, BitSet> peerKnowledge;
+
+    ConsensusInstance(int id, OptionDictionary optionTable, int knownOptions, List<String[]> questions, Map<Integer, Integer> voterIndex) {
+        this.id = id;
+        this.voterIndex = voterIndex;
+        peerKnowledge = new HashMap<>();
+        this.optionTable = optionTable;
+        this.knownOptions = knownOptions;
+        this.questions = questions.size() > 1 ? questions : null;
+        votes = new ArrayList<>();
+        newVotes = new ArrayList<>();
+        voteKeys = new LongHashSet();
+        voteCount = new int[optionTable.size()];
+        portsUsed = new ArrayList<>();
+        seenPorts = new LongHashSet();
+        if (this.questions != null) {
+            batchCount = new int[questions.size()][];
+            unknownCount = new ArrayList<>();
+            optionIndex = new ArrayList<>();
+            for (String[] options : questions) {
+                batchCount[unknownCount.size()] = new int[options.length];
+                unknownCount.add(new TreeMap<>());
+                Map<String, Integer> index = new HashMap<>();
+                for (int option = 0; option < options.length; option++) {
+                    //An option listed twice counts as the first of them
+                    index.putIfAbsent(options[option], option);
+                }
+                optionIndex.add(index);
+            }
+        }
+    }
+
+    int getId() {
+        return id;
+    }
+
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    List<Vote> getNewVotes() {
+        return newVotes;
+    }
+
+    void addNewVote(Vote vote) {
+        newVotes.add(vote);
+    }
+
+    /*
+    Adds the votes another participant has sent this round, which it is now known to hold
+     */
+    void receiveVotes(int peerPort, List<Vote> received) {
+        newVotes.addAll(received);
+        peerHolds(peerPort, received);
+    }
+
+    /*
+    Returns the new votes that a participant is not known to hold, and records that it will hold them once they are sent
+    Votes from participants that were not in DETAILS are always sent
+     */
+    List<Vote> takeNewVotesFor(int peerPort) {
+        BitSet known = knowledgeOf(peerPort);
+        List<Vote> delta = new ArrayList<>(newVotes.size());
+        for (Vote vote : newVotes) {
+            Integer voter = voterIndex.get(vote.getParticipantPort());
+            if (voter == null || !known.get(voter)) {
+                delta.add(vote);
+            }
+        }
+        peerHolds(peerPort, delta);
+        return delta;
+    }
+
+    private void peerHolds(int peerPort, List<Vote> held) {
+        BitSet known = knowledgeOf(peerPort);
+        for (Vote vote : held) {
+            Integer voter = voterIndex.get(vote.getParticipantPort());
+            if (voter != null) {
+                known.set(voter);
+            }
+        }
+    }
+
+    void clearNewVotes() {
+        newVotes.clear();
+    }
+
+    private BitSet knowledgeOf(int peerPort) {
+        BitSet known = peerKnowledge.get(peerPort);
+        if (known == null) {
+            known = new BitSet(voterIndex.size());
+            peerKnowledge.put(peerPort, known);
+        }
+        return known;
+    }
+
+    /*
+    Keeps only the new votes that have not been seen before, and adds them to the list of all votes
+     */
+    void removeDuplicateNewVotes() {
+        List<Vote> holdVotes = new ArrayList<>();
+        for (Vote vote : newVotes) {
+            if (isVoteNew(vote)) {
+                holdVotes.add(vote);
+                votes.add(vote);
+                voteKeys.add(vote.getKey());
+                count(vote);
+            }
+        }
+        newVotes = holdVotes;
+    }
+
+    /*
+    Adds a vote that has just been accepted to the tally and the ports used
+     */
+    private void count(Vote vote) {
+        if (seenPorts.add(vote.getParticipantPort())) {
+            portsUsed.add(vote.getParticipantPort());
+        }
+        if (questions != null) {
+            String[] choices = vote.getVote().split(QUESTION_SEPARATOR, -1);
+            for (int question = 0; question < questions.size() && question < choices.length; question++) {
+                Integer option = optionIndex.get(question).get(choices[question]);
+                if (option != null) {
+                    batchCount[question][option]++;
+                } else {
+                    unknownCount.get(question).merge(choices[question], 1, Integer::sum);
+                }
+            }
+            return;
+        }
+        if (vote.getOptionId() >= voteCount.length) {
+            //Options unknown when the instance started have been added to optionTable since
+            voteCount = Arrays.copyOf(voteCount, Math.max(vote.getOptionId() + 1, optionTable.size()));
+        }
+        voteCount[vote.getOptionId()]++;
+    }
+
+    /*
+    Appends every vote to a vote string to be multicasted
+     */
+    static String convertVotesToString(List<Vote> votes) {
+        StringBuilder strVotes = new StringBuilder();
+        for (Vote vote : votes) {
+            strVotes.append(" ").append(vote);
+        }
+        return strVotes.toString();
+    }
+
+    /*
+    Returns true if any vote received this round has not been seen before
+     */
+    boolean hasUnseenNewVotes() {
+        for (Vote vote : newVotes) {
+            if (isVoteNew(vote)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    Returns true if a given vote is a new unique vote
+     */
+    private boolean isVoteNew(Vote newVote) {
+        return !voteKeys.contains(newVote.getKey());
+    }
+
+    /*
+    Calculates the majority vote from the tally of all its votes
+    Ties go to the option listed first in VOTE_OPTIONS, so every participant with the same votes decides the same way
+     */
+    String decideMajorityVote() {
+        if (questions != null) {
+            return decideBatch();
+        }
+        int maxVote = -1;
+        for (int option = 0; option < voteCount.length; option++) {
+            if (voteCount[option] == 0) {
+                continue;
+            }
+            if (maxVote < 0 || voteCount[option] > voteCount[maxVote]
+                    || (voteCount[option] == voteCount[maxVote] && option >= knownOptions && maxVote >= knownOptions
+                        && optionTable.get(option).compareTo(optionTable.get(maxVote)) < 0)) {
+                maxVote = option;
+            }
+        }
+
+        return maxVote < 0 ? null : optionTable.get(maxVote);
+    }
+
+    /*
+    Decides every question of a batch on its own, from the choices each vote made for it
+    Returns the outcome of every question, in order, joined into one batch vote
+     */
+    private String decideBatch() {
+        StringBuilder outcome = new StringBuilder();
+        for (int question = 0; question < questions.size(); question++) {
+            //Ties go to the option listed first, then to the first unknown option in string order
+            String best = null;
+            int bestCount = 0;
+            for (int option = 0; option < batchCount[question].length; option++) {
+                if (batchCount[question][option] > bestCount) {
+                    best = questions.get(question)[option];
+                    bestCount = batchCount[question][option];
+                }
+            }
+            for (String unknown : unknownCount.get(question).keySet()) {
+                if (unknownCount.get(question).get(unknown) > bestCount) {
+                    best = unknown;
+                    bestCount = unknownCount.get(question).get(unknown);
+                }
+            }
+            if (question > 0) {
+                outcome.append(QUESTION_SEPARATOR);
+            }
+            outcome.append(best);
+        }
+        return votes.isEmpty() ? null : outcome.toString();
+    }
+
+    /*
+    Splits the options sent in VOTE_OPTIONS into the options of each question
+     */
+    static List<String[]> splitQuestions(String[] options) {
+        List<String[]> questions = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= options.length; i++) {
+            if (i == options.length || options[i].equals(QUESTION_SEPARATOR)) {
+                questions.add(Arrays.copyOfRange(options, start, i));
+                start = i + 1;
+            }
+        }
+        return questions;
+    }
+
+    /*
+    Returns a list of all participants ports that contributed to the list of votes
+     */
+    List<Integer> getPortsUsed() {
+        return Collections.unmodifiableList(portsUsed);
+    }
+
+    /*
+    Prints the votes received for a given round
+    primarily used for debugging
+     */
+    void printVotes() {
+        StringBuilder votesString = new StringBuilder();
+        for (Vote vote : votes) {
+            votesString.append(vote).append(" ");
+        }
+        System.out.println("Votes: " + votesString.toString());
+        votesString = new StringBuilder();
+        for (Vote vote : newVotes) {
+            votesString.append(vote).append(" ");
+        }
+        System.out.println("New Votes: " + votesString.toString());
+        System.out.println();
+    }
+}
@@ -1,17 +1,26 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Coordinator {
 
+    //When set, the coordinator runs on a single selector thread instead of a thread per participant
+    private static final boolean USE_NIO = Boolean.getBoolean("coordinator.nio");
+
     private int port;
     private int lport;
     private int parts;
@@ -20,26 +29,72 @@ public class Coordinator {
 
     private CoordinatorLogger logger;
 
-    //The list of all participants
-    private List<Socket> clients;
+    //How the participants connect, TCP unless another transport is chosen with -Dtransport
+    private final Transport transport;
+
+    //The list of all participants, in the order they joined, once enough have joined
+    private List<Transport.Connection> clients;
+
+    //Every participant that has joined, keyed by the port it listens on
+    private Map<Integer, Transport.Connection> members;
+
+    //Set once enough participants have joined, after which any other JOIN is turned away
+    private boolean joinClosed;
+
+    private HashMap<Transport.Connection, Integer> clientsConnSockets;
+    private HashMap<Transport.Connection, MessageWriter> outputs;
+    private HashMap<Transport.Connection, MessageReader> clientInputs;
+
+    //The ports of the participants that asked for the binary protocol when they joined
+    private Set<Integer> binaryRequested;
+
+    //Whether DETAILS and VOTE_OPTIONS were sent as binary frames, in which case proposals are too
+    private boolean binary;
+
+    //The proposals being decided in multi-instance mode, by ID, with the participants each is still waiting on
+    private Map<Integer, RoundBarrier<Integer>> proposals;
+
+    //The participants that have not crashed in multi-instance mode, keyed by the port they listen on
+    private Map<Integer, Transport.Connection> live;
+
+    //Relays the votes of each proposal in multi-instance mode with relay dissemination, once they are in
+    private ExecutorService relayer;
 
+    //The counters and histograms of this coordinator, see Metrics
+    private Metrics metrics;
 
-    private HashMap<Socket, Integer> clientsConnSockets;
-    //private HashMap<Socket, PrintWriter> outputs;
-    private List<BufferedReader> inputs;
-    private HashMap<BufferedReader,Integer> inputsPorts;
+    //The message counters of every participant, by the port it listens on, each looked up once
+    private final Map<Integer, Metrics.PeerCounters> peerCounters = new ConcurrentHashMap<>();
+
+    //When DETAILS started being sent, from which the time to every OUTCOME is measured
+    private long detailsSentAt;
+
+    //With -Dheartbeat.intervalMillis, suspects participants that stop sending heartbeats, otherwise null
+    private FailureDetector detector;
+
+    //The participants still being listened to, which the failure detector watches
+    private final Set<Integer> monitored = ConcurrentHashMap.newKeySet();
+
+    //With -Dconsensus.dissemination=relay, collects the votes of the participants to send on to the others, otherwise null
+    private VoteRelay relay;
 
     public static void main(String[] args) {
         String[] options = Arrays.copyOfRange(args, 4, args.length);
-        new Coordinator(args[0], args[1], args[2], args[3], options);
+        options = repeatQuestions(options, Integer.getInteger("consensus.batch", 1));
+        new Coordinator(args[0], args[1], args[2], args[3], options, Transport.fromProperties());
     }
 
-    private Coordinator(String port, String lport, String parts, String timeout, String[] options) {
+    Coordinator(String port, String lport, String parts, String timeout, String[] options, Transport transport) {
+        this.transport = transport;
         this.port = Integer.parseInt(port);
         this.lport = Integer.parseInt(lport);
         this.parts = Integer.parseInt(parts);
         this.timeout = Integer.parseInt(timeout);
         this.options = options;
+        metrics = Metrics.forProcess(Metrics.COORDINATOR, this.port);
+        if (FailureDetector.ENABLED) {
+            detector = new FailureDetector(this.port, metrics);
+        }
 
         try {
             CoordinatorLogger.initLogger(this.lport, this.port, this.timeout);
@@ -50,74 +105,438 @@ public class Coordinator {
         }
 
         clients = new ArrayList<>();
-        //outputs = new HashMap<>();
-        inputs = new ArrayList<>();
-        inputsPorts = new HashMap<>();
+        members = new LinkedHashMap<>();
+        outputs = new HashMap<>();
+        clientInputs = new HashMap<>();
+        binaryRequested = new HashSet<>();
 
         clientsConnSockets = new HashMap<>();
-        waitForMessages();
+        if (VoteRelay.ENABLED) {
+            relay = new VoteRelay(options);
+        }
+        if (USE_NIO && ConsensusInstance.PROPOSALS > 0) {
+            System.out.println("Multi-instance mode runs on the blocking coordinator, ignoring coordinator.nio");
+            waitForMessages();
+        } else if (USE_NIO && relay != null) {
+            System.out.println("Relay dissemination runs on the blocking coordinator, ignoring coordinator.nio");
+            waitForMessages();
+        } else if (USE_NIO && transport != TcpTransport.INSTANCE) {
+            System.out.println("The selector based coordinator only runs over TCP, ignoring coordinator.nio");
+            waitForMessages();
+        } else if (USE_NIO) {
+            runEventLoop();
+        } else {
+            waitForMessages();
+        }
+    }
+
+    /*
+    Asks the same question a number of times in one batch, each copy separated by ConsensusInstance.QUESTION_SEPARATOR
+     */
+    static String[] repeatQuestions(String[] options, int batch) {
+        List<String> repeated = new ArrayList<>();
+        for (int i = 0; i < batch; i++) {
+            if (i > 0) {
+                repeated.add(ConsensusInstance.QUESTION_SEPARATOR);
+            }
+            repeated.addAll(Arrays.asList(options));
+        }
+        return repeated.toArray(new String[0]);
+    }
+
+    /*
+    Runs the entire life of the server process on a single selector thread
+     */
+    private void runEventLoop() {
+        try {
+            new CoordinatorEventLoop(port, parts, timeout, options, logger).run();
+        } catch (IOException e) {
+            System.out.println("error " + e);
+        }
     }
 
     /*
     The main method that runs the entire life of the server process
      */
     private void waitForMessages() {
+        ExecutorService handshakes = Executors.newCachedThreadPool();
         try {
 
-            //Opens the server and waits for enough clients to JOIN
-            ServerSocket ss = new ServerSocket(port);
+            //Opens the server and reads every JOIN on its own thread, so a slow joiner holds up no one else
+            Transport.Listener ss = transport.listen(port);
             logger.startedListening(port);
-            while (clients.size() < parts) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Transport.Connection client = ss.accept(0);
+                        logger.connectionAccepted(client.getPort());
+                        handshakes.execute(() -> readJoin(client));
+                    }
+                } catch (IOException e) {
+                    //The server socket is closed once enough clients have joined
+                }
+            }, "acceptor");
+            acceptor.start();
 
-                Socket client = ss.accept();
-                client.setSoTimeout(timeout);
-                logger.connectionAccepted(client.getPort());
-                //client.setSoTimeout(timeout);
-                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+            //Waits for enough clients to JOIN
+            synchronized (this) {
+                while (members.size() < parts) {
+                    wait();
+                }
+                joinClosed = true;
+                clients = new ArrayList<>(members.values());
+            }
+            ss.close();
 
-                inputs.add(in);
 
-                String line = in.readLine();
-                if (getProtocol(line).equals("JOIN")) {
-                    int port = Integer.parseInt(getData(line)[0]);
-                    inputsPorts.put(in,port);
-                    addOrReplaceClient(client, port);
-                    System.out.println(port + " Has joined!");
-                    logger.joinReceived(port);
-                    logger.messageReceived(client.getPort(), line);
+            //Sends DETAILS and VOTE_OPTIONS to every client at once, as binary frames if every client asked for them
+            //A batch of questions is always sent as text, as binary votes can only name a single option
+            binary = binaryRequested.containsAll(clientsConnSockets.values()) && ConsensusInstance.splitQuestions(options).size() == 1;
+            String optionsString = getOptionsForClient();
+            byte[] optionsFrame = binary ? BinaryProtocol.encodeVoteOptions(options) : null;
+            List<Integer> participantIds = new ArrayList<>(members.keySet());
+            List<Callable<Void>> fanOut = new ArrayList<>();
+            detailsSentAt = System.nanoTime();
+            for (Transport.Connection client : clients) {
+                MessageWriter out = new MessageWriter(client.getOutputStream());
+                outputs.put(client, out);
+                fanOut.add(() -> {
+                    sendDetailsAndOptions(client, out, participantIds, optionsString, optionsFrame);
+                    return null;
+                });
+            }
+            handshakes.invokeAll(fanOut);
+            handshakes.shutdown();
+            startSuspecting(participantIds);
+
+            if (ConsensusInstance.PROPOSALS > 0) {
+                runProposals();
+                return;
+            }
+
+            //Starts threads to attempt to listen for the OUTCOME from every client
+            if (relay != null) {
+                relay.open(0, participantIds);
+            }
+            for (Transport.Connection client : clients) {
+                new ClientListener(client, clientInputs.get(client), clientsConnSockets.get(client)).start();
+            }
+            if (relay != null) {
+                relayVotes(0);
+            }
+        } catch (Exception e) {
+            System.out.println("error " + e);
+            handshakes.shutdownNow();
+        }
+    }
+
+    /*
+    Every heartbeat.intervalMillis, closes the connection of any participant the failure detector suspects,
+    so its listener stops waiting for it and it is logged as crashed straight away rather than once the timeout passes
+     */
+    private void startSuspecting(List<Integer> participantIds) {
+        if (detector == null) {
+            return;
+        }
+        monitored.addAll(participantIds);
+        ScheduledExecutorService suspicions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "suspicions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        suspicions.scheduleAtFixedRate(() -> {
+            for (int participantPort : detector.newSuspects(monitored)) {
+                System.out.println("Participant " + participantPort + " suspected by the failure detector");
+                metrics.counter("suspicions").increment();
+                Transport.Connection client;
+                synchronized (this) {
+                    client = members.get(participantPort);
+                }
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    //It is no longer read either way
                 }
+            }
+        }, FailureDetector.INTERVAL_MILLIS, FailureDetector.INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
+    /*
+    Reads the JOIN sent on a newly accepted connection and adds the client to the participants
+     */
+    private void readJoin(Transport.Connection client) {
+        try {
+            client.setSoTimeout(timeout);
+            MessageReader in = new MessageReader(client.getInputStream());
+            String line = in.read().toLine(null);
+            if (!getProtocol(line).equals("JOIN")) {
+                close(client);
+                return;
             }
+            String[] data = getData(line);
+            int port = Integer.parseInt(data[0]);
+            countersOf(port).received(in.getBytesRead());
+            synchronized (this) {
+                if (joinClosed) {
+                    close(client);
+                    return;
+                }
+                if (data.length > 1 && data[1].equals(BinaryProtocol.JOIN_FLAG)) {
+                    binaryRequested.add(port);
+                } else {
+                    binaryRequested.remove(port);
+                }
+                clientInputs.put(client, in);
+                addOrReplaceClient(client, port);
+                if (members.size() >= parts) {
+                    notifyAll();
+                }
+            }
+            System.out.println(port + " Has joined!");
+            logger.joinReceived(port);
+            logger.messageReceived(client.getPort(), line);
+        } catch (IOException | RuntimeException e) {
+            //A JOIN that times out or cannot be parsed leaves nothing to keep the connection for
+            System.out.println("Connection error while joining " + e);
+            close(client);
+        }
+    }
 
+    private static void close(Transport.Connection client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
 
-            //Sends DETAILS and VOTE_OPTIONS to every client
-            String optionsString = getOptionsForClient();
-            String detailsForClient;
-            for (Socket client : clients) {
-                PrintWriter out = new PrintWriter(client.getOutputStream());
-                //outputs.put(client, out);
+    /*
+    Sends DETAILS and VOTE_OPTIONS to one client
+     */
+    private void sendDetailsAndOptions(Transport.Connection client, MessageWriter out, List<Integer> participantIds, String optionsString, byte[] optionsFrame) {
+        String detailsForClient = getDetailsForClient(clients, clientsConnSockets, client);
+        Metrics.PeerCounters counters = countersOf(clientsConnSockets.get(client));
+        long written = out.getBytesWritten();
+        if (binary) {
+            out.writeFrame(BinaryProtocol.encodeDetails(getDetailsPortsForClient(client)));
+        } else {
+            out.println("DETAILS" + detailsForClient);
+        }
+        out.flush();
+        counters.sent(out.getBytesWritten() - written);
+        logger.detailsSent(clientsConnSockets.get(client), participantIds);
+        logger.messageSent(client.getPort(),"DETAILS" + detailsForClient);
+
+        written = out.getBytesWritten();
+        if (binary) {
+            out.writeFrame(optionsFrame);
+        } else {
+            out.println("VOTE_OPTIONS" + optionsString);
+        }
+        out.flush();
+        counters.sent(out.getBytesWritten() - written);
+        logger.voteOptionsSent(clientsConnSockets.get(client), Arrays.asList(options));
+        logger.messageSent(client.getPort(),"VOTE_OPTIONS" + optionsString);
+    }
 
-                detailsForClient = getDetailsForClient(client);
-                out.println("DETAILS" + detailsForClient);
+    /*
+    Runs consensus.instances proposals over the connections already open to the participants
+    Up to consensus.pipeline proposals are in flight at once, and another is sent as soon as the oldest is decided
+    A proposal is decided once every live participant has sent its OUTCOME_FOR it, or its timeout passes,
+    in which case the participants that did not answer are treated as crashed and not waited on again
+     */
+    private void runProposals() throws IOException, InterruptedException {
+        live = new LinkedHashMap<>();
+        proposals = new HashMap<>();
+        if (relay != null) {
+            relayer = Executors.newFixedThreadPool(ConsensusInstance.PIPELINE_DEPTH);
+        }
+        for (Transport.Connection client : clients) {
+            live.put(clientsConnSockets.get(client), client);
+            //A proposal has its own timeout, so a participant may be quiet for longer than it between proposals
+            client.setSoTimeout(0);
+            client.setTcpNoDelay(true);
+            new ProposalListener(clientInputs.get(client), clientsConnSockets.get(client)).start();
+        }
+
+        long start = System.nanoTime();
+        //The IDs of the proposals in flight, oldest first, when each one times out and when it was sent
+        ArrayDeque<long[]> inFlight = new ArrayDeque<>();
+        Histogram proposalTime = metrics.histogram("proposal.us");
+        int nextProposal = 1;
+        int decided = 0;
+        while (decided < ConsensusInstance.PROPOSALS) {
+            while (inFlight.size() < ConsensusInstance.PIPELINE_DEPTH && nextProposal <= ConsensusInstance.PROPOSALS) {
+                if (!propose(nextProposal)) {
+                    break;
+                }
+                inFlight.add(new long[]{nextProposal, System.currentTimeMillis() + voteTimeout(), System.nanoTime()});
+                nextProposal++;
+            }
+            long[] oldest = inFlight.poll();
+            if (oldest == null) {
+                break;
+            }
+            int proposal = (int) oldest[0];
+            RoundBarrier<Integer> barrier;
+            synchronized (this) {
+                barrier = proposals.get(proposal);
+            }
+            barrier.await(Math.max(1, oldest[1] - System.currentTimeMillis()));
+            Metrics.recordSince(proposalTime, oldest[2]);
+            synchronized (this) {
+                proposals.remove(proposal);
+                for (int participantPort : barrier.close()) {
+                    if (live.remove(participantPort) != null) {
+                        if (relay != null) {
+                            relay.suspect(participantPort);
+                        }
+                        System.out.println("Timeout with participant " + participantPort);
+                        metrics.counter("timeouts").increment();
+                        metrics.counter("crashes").increment();
+                        logger.participantCrashed(participantPort);
+                        for (RoundBarrier<Integer> other : proposals.values()) {
+                            other.suspect(participantPort);
+                        }
+                    }
+                }
+            }
+            decided++;
+        }
+
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        //Every question of a batch is a decision of its own
+        long decisions = (long) decided * ConsensusInstance.splitQuestions(options).size();
+        System.out.println("Decided " + decided + " instances in " + millis + " ms (" + (decisions * 1000 / millis) + " decisions per second)");
+        synchronized (this) {
+            live.clear();
+        }
+        if (relayer != null) {
+            relayer.shutdown();
+        }
+        for (Transport.Connection client : clients) {
+            client.close();
+        }
+    }
+
+    /*
+    Waits for the votes of every participant of an instance, or for the timeout, then sends every participant
+    that is still connected the same message with every vote received, a VOTE, or a VOTE_FOR in multi-instance mode
+     */
+    private void relayVotes(int instance) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Vote> votes = relay.relay(instance, timeout);
+        Metrics.recordSince(metrics.histogram("relay.us"), start);
+        boolean tagged = ConsensusInstance.PROPOSALS > 0;
+        String line = (tagged ? Message.VOTE_FOR + " " + instance : Message.VOTE) + ConsensusInstance.convertVotesToString(votes);
+        byte[] frame = !binary ? null : tagged ? BinaryProtocol.encodeVotesFor(instance, votes) : BinaryProtocol.encodeVotes(votes);
+        Map<Integer, Transport.Connection> connected;
+        synchronized (this) {
+            connected = new LinkedHashMap<>(live != null ? live : members);
+        }
+        for (Map.Entry<Integer, Transport.Connection> participant : connected.entrySet()) {
+            Transport.Connection client = participant.getValue();
+            MessageWriter out = outputs.get(client);
+            long written;
+            //Proposals and the votes of other instances share the connection
+            synchronized (out) {
+                written = out.getBytesWritten();
+                if (binary) {
+                    out.writeFrame(frame);
+                } else {
+                    out.println(line);
+                }
                 out.flush();
-                logger.detailsSent(clientsConnSockets.get(client), new ArrayList<>(clientsConnSockets.values()));
-                logger.messageSent(client.getPort(),"DETAILS" + detailsForClient);
+                written = out.getBytesWritten() - written;
+            }
+            countersOf(participant.getKey()).sent(written);
+            logger.messageSent(client.getPort(), line);
+        }
+    }
 
-                out.println("VOTE_OPTIONS" + optionsString);
+    /*
+    Sends a PROPOSAL to every live participant, returning false if there are none left
+     */
+    private boolean propose(int proposal) {
+        List<Transport.Connection> proposedTo;
+        synchronized (this) {
+            if (live.isEmpty()) {
+                return false;
+            }
+            proposals.put(proposal, new RoundBarrier<>(live.keySet()));
+            proposedTo = new ArrayList<>(live.values());
+            if (relay != null) {
+                relay.open(proposal, live.keySet());
+            }
+        }
+        byte[] frame = binary ? BinaryProtocol.encodeProposal(proposal) : null;
+        for (Transport.Connection client : proposedTo) {
+            MessageWriter out = outputs.get(client);
+            long written;
+            synchronized (out) {
+                written = out.getBytesWritten();
+                if (binary) {
+                    out.writeFrame(frame);
+                } else {
+                    out.println("PROPOSAL " + proposal);
+                }
                 out.flush();
-                logger.voteOptionsSent(clientsConnSockets.get(client), Arrays.asList(options));
-                logger.messageSent(client.getPort(),"VOTE_OPTIONS" + optionsString);
+                written = out.getBytesWritten() - written;
             }
+            countersOf(clientsConnSockets.get(client)).sent(written);
+            logger.messageSent(client.getPort(), "PROPOSAL " + proposal);
+        }
+        if (relay != null) {
+            relayer.execute(() -> {
+                try {
+                    relayVotes(proposal);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        return true;
+    }
 
-            //Starts threads to attempt to listen for the OUTCOME from every client
-            for (BufferedReader in : inputs) {
-                new ClientListener(in, inputsPorts.get(in)).start();
+    /*
+    Called by a proposal listener for every OUTCOME_FOR, which only counts towards a proposal still being decided
+     */
+    private synchronized void outcomeReceived(int participantPort, Message message) {
+        RoundBarrier<Integer> barrier = proposals.get(message.getInstance());
+        if (barrier != null) {
+            barrier.arrive(participantPort);
+        }
+    }
+
+    private synchronized void proposalConnectionLost(int participantPort) {
+        if (live.remove(participantPort) != null) {
+            for (RoundBarrier<Integer> barrier : proposals.values()) {
+                barrier.suspect(participantPort);
             }
-        } catch (Exception e) {
-            System.out.println("error " + e);
+            if (relay != null) {
+                relay.suspect(participantPort);
+            }
+            System.out.println("Connection error with participant " + participantPort);
+            metrics.counter("crashes").increment();
+            logger.participantCrashed(participantPort);
         }
     }
 
+    /*
+    How long a participant has to send its OUTCOME, twice the timeout with relay dissemination,
+    where the votes are first relayed through this coordinator, which itself takes up to the timeout
+     */
+    private long voteTimeout() {
+        return relay != null ? 2L * timeout : timeout;
+    }
+
+    /*
+    The counters of the messages sent to and received from a participant, created the first time they are asked for
+     */
+    private Metrics.PeerCounters countersOf(int participantPort) {
+        Metrics.PeerCounters counters = peerCounters.get(participantPort);
+        return counters != null ? counters : peerCounters.computeIfAbsent(participantPort, metrics::peer);
+    }
+
     /*
         Extracts the protocol from relevant data
      */
@@ -138,11 +557,11 @@ public class Coordinator {
     }
 
     /*
-        Creates DETAILS for a specific client
+        Creates DETAILS for a specific client, from every client and the port each one listens on
      */
-    private String getDetailsForClient(Socket client) {
+    static <C> String getDetailsForClient(List<C> clients, Map<C, Integer> clientsConnSockets, C client) {
         StringBuilder details = new StringBuilder();
-        for (Socket socket : clients) {
+        for (C socket : clients) {
             if (socket != client) {
                 details.append(" ").append(clientsConnSockets.get(socket));
             }
@@ -150,6 +569,19 @@ public class Coordinator {
         return details.toString();
     }
 
+    /*
+        Lists the ports in the DETAILS for a specific client
+     */
+    private List<Integer> getDetailsPortsForClient(Transport.Connection client) {
+        List<Integer> ports = new ArrayList<>();
+        for (Transport.Connection socket : clients) {
+            if (socket != client) {
+                ports.add(clientsConnSockets.get(socket));
+            }
+        }
+        return ports;
+    }
+
     /*
         gets OPTIONS to send to every client
      */
@@ -162,19 +594,15 @@ public class Coordinator {
     }
 
     /*
-        Given a new participant, either adds it to the list of participants or replaces an existing participant with the same port
+        Given a new participant, either adds it to the participants or replaces an existing participant with the same port
      */
-    private void addOrReplaceClient(Socket client, int ssPort) {
-        for (Socket socket : clients) {
-            if (client.getPort() == socket.getPort()) {
-                clients.remove(socket);
-                clientsConnSockets.remove(socket);
-                clients.add(client);
-                clientsConnSockets.put(client, ssPort);
-                return;
-            }
+    private void addOrReplaceClient(Transport.Connection client, int ssPort) {
+        Transport.Connection replaced = members.put(ssPort, client);
+        if (replaced != null) {
+            clientsConnSockets.remove(replaced);
+            clientInputs.remove(replaced);
+            close(replaced);
         }
-        clients.add(client);
         clientsConnSockets.put(client, ssPort);
     }
 
@@ -184,12 +612,16 @@ public class Coordinator {
      */
     public class ClientListener extends Thread {
 
-        BufferedReader in;
+        Transport.Connection client;
+        MessageReader in;
         int port;
+        Metrics.PeerCounters counters;
 
-        ClientListener(BufferedReader in, int port) {
+        ClientListener(Transport.Connection client, MessageReader in, int port) {
+            this.client = client;
             this.in = in;
             this.port = port;
+            counters = countersOf(port);
         }
 
         /*
@@ -197,7 +629,33 @@ public class Coordinator {
          */
         public void run() {
             try {
-                String line = in.readLine();
+                long read = in.getBytesRead();
+                Message message = in.read();
+                //Heartbeats, and votes to relay, may come before the OUTCOME, and as every one of them would restart the timeout,
+                //it is cut down to what is left of it before reading on
+                while (message.getProtocol().equals(Message.HEARTBEAT) || message.getProtocol().equals(Message.VOTE)) {
+                    if (message.getProtocol().equals(Message.VOTE)) {
+                        counters.received(in.getBytesRead() - read);
+                        logger.messageReceived(port, message.toLine(Arrays.asList(options)));
+                        if (relay != null) {
+                            relay.votesReceived(port, in, message);
+                        }
+                    } else if (detector != null) {
+                        detector.heartbeatReceived(message.toLine(null));
+                    }
+                    if (timeout > 0) {
+                        long left = TimeUnit.NANOSECONDS.toMillis(detailsSentAt - System.nanoTime()) + voteTimeout();
+                        if (left <= 0) {
+                            throw new SocketTimeoutException();
+                        }
+                        client.setSoTimeout((int) left);
+                    }
+                    read = in.getBytesRead();
+                    message = in.read();
+                }
+                String line = message.toLine(Arrays.asList(options));
+                Metrics.recordSince(metrics.histogram("outcome.us"), detailsSentAt);
+                counters.received(in.getBytesRead() - read);
                 System.out.println(line);
                 String[] data = getData(line);
                 logger.outcomeReceived(Integer.parseInt(data[1]),data[0]);
@@ -205,11 +663,66 @@ public class Coordinator {
 
             } catch (SocketTimeoutException e) {
                 System.out.println("Timeout with participant " + port);
+                metrics.counter("timeouts").increment();
+                metrics.counter("crashes").increment();
                 logger.participantCrashed(port);
             }
             catch (IOException e) {
                 System.out.println("Connection error with participant " + port);
+                metrics.counter("crashes").increment();
                 logger.participantCrashed(port);
+            } finally {
+                monitored.remove(port);
+                //Once its votes have been relayed this changes nothing
+                if (relay != null) {
+                    relay.suspect(port);
+                }
+            }
+        }
+    }
+
+    /*
+    In multi-instance mode a proposal listener thread runs for every participant, reading each OUTCOME_FOR it sends
+     */
+    public class ProposalListener extends Thread {
+
+        MessageReader in;
+        int port;
+        int outcomes;
+        Metrics.PeerCounters counters;
+
+        ProposalListener(MessageReader in, int port) {
+            this.in = in;
+            this.port = port;
+            counters = countersOf(port);
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    long read = in.getBytesRead();
+                    Message message = in.read();
+                    counters.received(in.getBytesRead() - read);
+                    if (message.getProtocol().equals(Message.OUTCOME_FOR)) {
+                        outcomes++;
+                        String line = message.toLine(Arrays.asList(options));
+                        logger.outcomeReceived(port, getData(line)[1]);
+                        logger.messageReceived(port, line);
+                        outcomeReceived(port, message);
+                    } else if (message.getProtocol().equals(Message.VOTE_FOR) && relay != null) {
+                        logger.messageReceived(port, message.toLine(Arrays.asList(options)));
+                        relay.votesReceived(port, in, message);
+                    } else if (message.getProtocol().equals(Message.HEARTBEAT) && detector != null) {
+                        detector.heartbeatReceived(message.toLine(null));
+                    }
+                }
+            } catch (IOException e) {
+                monitored.remove(port);
+                //A participant leaves once it has decided every proposal
+                if (outcomes != ConsensusInstance.PROPOSALS) {
+                    proposalConnectionLost(port);
+                }
             }
         }
     }
@@ -0,0 +1,385 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+A single threaded, selector based alternative to the blocking accept loop and ClientListener threads of the Coordinator
+It accepts the JOINs, fans out DETAILS and VOTE_OPTIONS and collects every OUTCOME from the one thread
+Enabled by starting the coordinator with -Dcoordinator.nio=true
+ */
+class CoordinatorEventLoop {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    //The longest line or binary frame read from a participant, the most a datagram can carry as elsewhere
+    private static final int MAX_MESSAGE = 65507;
+
+    private final int port;
+    private final int parts;
+    private final int timeout;
+    private final String[] options;
+    private final List<String> optionsList;
+    private final CoordinatorLogger logger;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+
+    //Every participant that has joined, in order of joining, keyed by the port it listens on
+    private final Map<Integer, Connection> joined = new LinkedHashMap<>();
+
+    //How many joined participants have not yet sent an OUTCOME or crashed
+    private int outcomesPending;
+
+    //The time at which any participant that has not sent an OUTCOME is considered crashed, 0 until DETAILS are sent
+    private long outcomeDeadline;
+
+    CoordinatorEventLoop(int port, int parts, int timeout, String[] options, CoordinatorLogger logger) {
+        this.port = port;
+        this.parts = parts;
+        this.timeout = timeout;
+        this.options = options;
+        this.optionsList = Arrays.asList(options);
+        this.logger = logger;
+    }
+
+    /*
+    Runs the entire life of the coordinator on the calling thread
+     */
+    void run() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        logger.startedListening(port);
+
+        try {
+            while (outcomeDeadline == 0 || outcomesPending > 0) {
+                long wait = 0;
+                if (outcomeDeadline != 0) {
+                    wait = outcomeDeadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        timeoutPendingOutcomes();
+                        break;
+                    }
+                }
+                selector.select(wait);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(conn);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(conn);
+                        }
+                    } catch (IOException e) {
+                        connectionLost(conn);
+                    } catch (RuntimeException e) {
+                        //A malformed message only costs the connection it came on, not the thread every participant shares
+                        System.out.println("Malformed message from port " + conn.remotePort + ": " + e);
+                        connectionLost(conn);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection conn = new Connection(channel);
+        conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        logger.connectionAccepted(conn.remotePort);
+    }
+
+    /*
+    Reads whatever is available on a connection and handles every complete line or binary frame
+     */
+    private void read(Connection conn) throws IOException {
+        int read = conn.channel.read(conn.readBuffer);
+        if (read < 0) {
+            connectionLost(conn);
+            return;
+        }
+        conn.readBuffer.flip();
+        while (conn.readBuffer.hasRemaining()) {
+            byte b = conn.readBuffer.get();
+            if (conn.inFrame) {
+                if (conn.frameLength < 0) {
+                    conn.frameLength = conn.readLengthByte(b);
+                } else {
+                    conn.append(b);
+                }
+                if (conn.frameLength >= 0 && conn.lineLength == conn.frameLength) {
+                    handleMessage(conn, conn.takeFrame());
+                }
+            } else if (b == BinaryProtocol.MAGIC && conn.lineLength == 0) {
+                conn.startFrame();
+            } else if (b == '\n') {
+                handleMessage(conn, Message.text(conn.takeLine()));
+            } else if (b != '\r') {
+                conn.append(b);
+            }
+            //A line that never ends, or a frame announcing more than any message needs, would otherwise grow the buffer without bound
+            if (conn.lineLength > MAX_MESSAGE || conn.frameLength > MAX_MESSAGE) {
+                System.out.println("Message over " + MAX_MESSAGE + " bytes from port " + conn.remotePort);
+                connectionLost(conn);
+                return;
+            }
+        }
+        conn.readBuffer.clear();
+    }
+
+    private void handleMessage(Connection conn, Message message) {
+        //Participants started with heartbeats on send them here too, but this loop only goes by its timeout
+        if (message.getProtocol().equals(Message.HEARTBEAT)) {
+            return;
+        }
+        String line = message.toLine(optionsList);
+        if (conn.participantPort == 0) {
+            if (message.getProtocol().equals(Message.JOIN) && outcomeDeadline == 0) {
+                join(conn, line);
+            }
+            return;
+        }
+        if (!conn.outcomeReceived && outcomeDeadline != 0) {
+            System.out.println(line);
+            String[] data = Coordinator.getData(line);
+            logger.outcomeReceived(Integer.parseInt(data[1]), data[0]);
+            logger.messageReceived(conn.remotePort, line);
+            conn.outcomeReceived = true;
+            outcomesPending--;
+        }
+    }
+
+    private void join(Connection conn, String line) {
+        String[] data = Coordinator.getData(line);
+        conn.participantPort = Integer.parseInt(data[0]);
+        conn.binaryRequested = data.length > 1 && data[1].equals(BinaryProtocol.JOIN_FLAG);
+        Connection replaced = joined.remove(conn.participantPort);
+        if (replaced != null) {
+            close(replaced);
+        }
+        joined.put(conn.participantPort, conn);
+        System.out.println(conn.participantPort + " Has joined!");
+        logger.joinReceived(conn.participantPort);
+        logger.messageReceived(conn.remotePort, line);
+
+        if (joined.size() >= parts) {
+            sendDetailsAndOptions();
+        }
+    }
+
+    /*
+    Queues DETAILS and VOTE_OPTIONS for every joined participant and starts the OUTCOME timeout
+    They are sent as binary frames if every participant asked for the binary protocol
+     */
+    private void sendDetailsAndOptions() {
+        StringBuilder optionsString = new StringBuilder();
+        for (String option : options) {
+            optionsString.append(" ").append(option);
+        }
+        List<Integer> participantIds = new ArrayList<>(joined.keySet());
+        //A batch of questions is always sent as text, as binary votes can only name a single option
+        boolean binary = ConsensusInstance.splitQuestions(options).size() == 1;
+        for (Connection conn : joined.values()) {
+            binary &= conn.binaryRequested;
+        }
+        byte[] optionsFrame = binary ? BinaryProtocol.encodeVoteOptions(options) : null;
+
+        for (Connection conn : joined.values()) {
+            StringBuilder details = new StringBuilder("DETAILS");
+            List<Integer> detailsPorts = new ArrayList<>();
+            for (int participantPort : participantIds) {
+                if (participantPort != conn.participantPort) {
+                    details.append(" ").append(participantPort);
+                    detailsPorts.add(participantPort);
+                }
+            }
+            if (binary) {
+                conn.queue(BinaryProtocol.encodeDetails(detailsPorts));
+            } else {
+                conn.queue(details.toString());
+            }
+            logger.detailsSent(conn.participantPort, participantIds);
+            logger.messageSent(conn.remotePort, details.toString());
+
+            if (binary) {
+                conn.queue(optionsFrame);
+            } else {
+                conn.queue("VOTE_OPTIONS" + optionsString);
+            }
+            logger.voteOptionsSent(conn.participantPort, Arrays.asList(options));
+            logger.messageSent(conn.remotePort, "VOTE_OPTIONS" + optionsString);
+        }
+
+        outcomesPending = joined.size();
+        outcomeDeadline = System.currentTimeMillis() + timeout;
+    }
+
+    private void write(Connection conn) throws IOException {
+        while (!conn.pendingWrites.isEmpty()) {
+            ByteBuffer buffer = conn.pendingWrites.peek();
+            conn.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            conn.pendingWrites.poll();
+        }
+        conn.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /*
+    Handles a participant closing its connection or failing before it has sent an OUTCOME
+     */
+    private void connectionLost(Connection conn) {
+        close(conn);
+        if (conn.participantPort == 0 || conn.outcomeReceived) {
+            return;
+        }
+        if (outcomeDeadline == 0) {
+            joined.remove(conn.participantPort);
+        } else {
+            outcomesPending--;
+            conn.outcomeReceived = true;
+        }
+        System.out.println("Connection error with participant " + conn.participantPort);
+        logger.participantCrashed(conn.participantPort);
+    }
+
+    private void timeoutPendingOutcomes() {
+        for (Connection conn : joined.values()) {
+            if (!conn.outcomeReceived) {
+                System.out.println("Timeout with participant " + conn.participantPort);
+                logger.participantCrashed(conn.participantPort);
+            }
+        }
+        outcomesPending = 0;
+    }
+
+    private void close(Connection conn) {
+        conn.key.cancel();
+        try {
+            conn.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /*
+    The state kept for every accepted channel
+     */
+    private static class Connection {
+
+        final SocketChannel channel;
+        final int remotePort;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        SelectionKey key;
+
+        //The bytes of the line or binary frame currently being read
+        byte[] line = new byte[128];
+        int lineLength;
+
+        //Whether a binary frame is being read, and its length once the whole varint has arrived
+        boolean inFrame;
+        int frameLength;
+        int lengthShift;
+
+        int participantPort;
+        boolean binaryRequested;
+        boolean outcomeReceived;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remotePort = ((InetSocketAddress) channel.getRemoteAddress()).getPort();
+        }
+
+        void append(byte b) {
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+        }
+
+        String takeLine() {
+            String taken = new String(line, 0, lineLength, CHARSET);
+            lineLength = 0;
+            return taken;
+        }
+
+        void startFrame() {
+            inFrame = true;
+            frameLength = -1;
+            lengthShift = 0;
+            lineLength = 0;
+        }
+
+        /*
+        Accumulates one byte of the varint frame length, returning the length once it is complete or -1 until then
+         */
+        int readLengthByte(byte b) {
+            lineLength |= (b & 0x7F) << lengthShift;
+            lengthShift += 7;
+            if ((b & 0x80) != 0) {
+                return -1;
+            }
+            int length = lineLength;
+            lineLength = 0;
+            return length;
+        }
+
+        Message takeFrame() {
+            Message message = BinaryProtocol.decode(line, lineLength);
+            inFrame = false;
+            lineLength = 0;
+            return message;
+        }
+
+        void queue(String message) {
+            queue(CHARSET.encode(CharBuffer.wrap(message + System.lineSeparator())));
+        }
+
+        void queue(byte[] frame) {
+            queue(ByteBuffer.wrap(frame));
+        }
+
+        private void queue(ByteBuffer buffer) {
+            pendingWrites.add(buffer);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+}
@@ -9,6 +9,9 @@ public class CoordinatorLogger {
 
     private final PrintStream ps;
     private final UDPLoggerClient udpLoggerClient;
+    private final LogShipper logShipper;
+    //Written instead of the text log and the logger server with -Dlogger.format=binary, see EventLog
+    private final EventLog events;
 
     /**
      * Initialises the Logger for the Coordinator
@@ -35,13 +38,25 @@ public class CoordinatorLogger {
     }
 
     private CoordinatorLogger(int loggerServerPort, int processId, int timeout) throws IOException {
-        udpLoggerClient = new UDPLoggerClient(loggerServerPort, processId, timeout);
+        if (EventLog.BINARY) {
+            events = new EventLog("coordinator_" + System.currentTimeMillis() + ".events", EventLog.COORDINATOR, processId);
+            udpLoggerClient = null;
+            ps = null;
+            logShipper = null;
+            return;
+        }
+        events = null;
+        Metrics metrics = Metrics.forProcess(Metrics.COORDINATOR, processId);
+        udpLoggerClient = new UDPLoggerClient(loggerServerPort, processId, timeout, metrics);
         ps = new PrintStream("coordinator_" + System.currentTimeMillis() + ".log");
+        logShipper = LogShipper.ASYNC ? new LogShipper(udpLoggerClient, ps, "[C]", metrics) : null;
     }
 
     protected void logMessage(String message) {
         ps.println(message);
-        if (udpLoggerClient != null)
+        if (logShipper != null)
+            logShipper.submit(message);
+        else if (udpLoggerClient != null)
             try {
                 udpLoggerClient.logToServer(message);
             } catch (IOException e) {
@@ -56,7 +71,10 @@ public class CoordinatorLogger {
      * @param port the port where the Coordinator is listening on
      */
     public void startedListening(int port) {
-        logMessage("[C] started listening on port " + port);
+        if (events != null)
+            events.write(EventLog.STARTED_LISTENING, port);
+        else
+            logMessage("[C] started listening on port " + port);
     }
 
     /**
@@ -65,7 +83,10 @@ public class CoordinatorLogger {
      * @param participantId the ID of the Participant that joined, i.e. the port where the Participant is listening on
      */
     public void joinReceived(int participantId) {
-        logMessage("[C] JOIN received from " + participantId);
+        if (events != null)
+            events.write(EventLog.JOIN_RECEIVED, participantId);
+        else
+            logMessage("[C] JOIN received from " + participantId);
     }
 
     /**
@@ -75,7 +96,10 @@ public class CoordinatorLogger {
      * @param participantIds the list of IDs of the Participants that joined
      */
     public void detailsSent(int destinationParticipantId, List<Integer> participantIds) {
-        logMessage("[C] details sent to " + destinationParticipantId + ": " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.write(EventLog.DETAILS_SENT, destinationParticipantId, participantIds);
+        else
+            logMessage("[C] details sent to " + destinationParticipantId + ": " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -85,7 +109,10 @@ public class CoordinatorLogger {
      * @param votingOptions the list of voting options
      */
     public void voteOptionsSent(int destinationParticipantId, List<String> votingOptions) {
-        logMessage("[C] vote options sent to " + destinationParticipantId + ": " + votingOptions.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.writeStrings(EventLog.VOTE_OPTIONS_SENT, destinationParticipantId, votingOptions);
+        else
+            logMessage("[C] vote options sent to " + destinationParticipantId + ": " + votingOptions.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -95,7 +122,10 @@ public class CoordinatorLogger {
      * @param vote the voting option sent by the Participant
      */
     public void outcomeReceived(int participantId, String vote) {
-        logMessage("[C] outcome " + vote + " received from " + participantId);
+        if (events != null)
+            events.write(EventLog.OUTCOME_RECEIVED, participantId, vote);
+        else
+            logMessage("[C] outcome " + vote + " received from " + participantId);
     }
 
     /**
@@ -104,7 +134,10 @@ public class CoordinatorLogger {
      * @param otherPort the remote port number to which this socket is connected; note that this is different from the Participant ID
      */
     public void connectionAccepted(int otherPort) {
-        logMessage("[C] accepted connection from port " + otherPort);
+        if (events != null)
+            events.write(EventLog.CONNECTION_ACCEPTED, otherPort);
+        else
+            logMessage("[C] accepted connection from port " + otherPort);
     }
 
     /**
@@ -114,7 +147,10 @@ public class CoordinatorLogger {
      * @param message the message sent
      */
     public void messageSent(int destinationPort, String message) {
-        logMessage("[C] message sent to " + destinationPort + ": \"" + message + "\"");
+        if (events != null)
+            events.write(EventLog.MESSAGE_SENT, destinationPort, message);
+        else
+            logMessage("[C] message sent to " + destinationPort + ": \"" + message + "\"");
     }
 
     /**
@@ -124,7 +160,10 @@ public class CoordinatorLogger {
      * @param message the message received
      */
     public void messageReceived(int senderPort, String message) {
-        logMessage("[C] message received from " + senderPort + ": \"" + message + "\"");
+        if (events != null)
+            events.write(EventLog.MESSAGE_RECEIVED, senderPort, message);
+        else
+            logMessage("[C] message received from " + senderPort + ": \"" + message + "\"");
     }
 
     /**
@@ -134,6 +173,9 @@ public class CoordinatorLogger {
      * @param crashedParticipantId the ID of the crashed Participant, i.e. the port where the crashed Participant was listening on
      */
     public void participantCrashed(int crashedParticipantId) {
-        logMessage("[C] participant crashed: " + crashedParticipantId);
+        if (events != null)
+            events.write(EventLog.PARTICIPANT_CRASHED, crashedParticipantId);
+        else
+            logMessage("[C] participant crashed: " + crashedParticipantId);
     }
 }
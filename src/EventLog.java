@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/*
+The log of a coordinator or participant as fixed binary records, written instead of text with -Dlogger.format=binary
+so that no event is ever formatted while the processes run; EventLogDecoder turns a file back into the text log
+
+A file starts with a header: the magic number, the format version, the role (0 coordinator, 1 participant)
+and the process ID, each an int except the version and role which are a byte each
+Every record is then its type (a byte), the time it was written (a long, in milliseconds), the length of its payload (an int)
+and the payload, in which strings are an int length followed by UTF-8 bytes and lists are an int count followed by the items
+
+The file is memory mapped a region at a time, so what has been written survives the process being killed,
+and a record whose type is 0 marks the end of a file that was never closed
+ */
+class EventLog {
+
+    static final boolean BINARY = "binary".equals(System.getProperty("logger.format", "text"));
+
+    static final int MAGIC = 0x43455654;
+    static final byte VERSION = 1;
+    static final byte COORDINATOR = 0;
+    static final byte PARTICIPANT = 1;
+
+    //Record types, named after the logger methods that write them
+    static final byte STARTED_LISTENING = 1;
+    static final byte CONNECTION_ACCEPTED = 2;
+    static final byte CONNECTION_ESTABLISHED = 3;
+    static final byte MESSAGE_SENT = 4;
+    static final byte MESSAGE_RECEIVED = 5;
+    static final byte PARTICIPANT_CRASHED = 6;
+    static final byte JOIN_SENT = 7;
+    static final byte JOIN_RECEIVED = 8;
+    static final byte DETAILS_SENT = 9;
+    static final byte DETAILS_RECEIVED = 10;
+    static final byte VOTE_OPTIONS_SENT = 11;
+    static final byte VOTE_OPTIONS_RECEIVED = 12;
+    static final byte OUTCOME_RECEIVED = 13;
+    static final byte BEGIN_ROUND = 14;
+    static final byte END_ROUND = 15;
+    static final byte ROUND_TIME = 16;
+    static final byte ROUNDS_RUN = 17;
+    static final byte ROUND_BYTES = 18;
+    static final byte VOTES_SENT = 19;
+    static final byte VOTES_RECEIVED = 20;
+    static final byte OUTCOME_DECIDED = 21;
+    static final byte OUTCOME_NOTIFIED = 22;
+
+    static final int HEADER_BYTES = 10;
+    static final int RECORD_HEADER_BYTES = 13;
+
+    //How much of the file is mapped at once
+    private static final int REGION_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    //Where in the file the current region starts
+    private long regionStart;
+    private boolean closed;
+
+    EventLog(String fileName, byte role, int processId) throws IOException {
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_BYTES);
+        region.putInt(MAGIC).put(VERSION).put(role).putInt(processId);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /*
+    A record of a single ID, e.g. a port
+     */
+    synchronized void write(byte type, int id) {
+        if (begin(type, 4)) {
+            region.putInt(id);
+        }
+    }
+
+    /*
+    A record of an ID and a list of IDs, e.g. the participants sent in DETAILS
+     */
+    synchronized void write(byte type, int id, List<Integer> ids) {
+        if (begin(type, 8 + 4 * ids.size())) {
+            region.putInt(id);
+            putInts(ids);
+        }
+    }
+
+    /*
+    A record of an ID and a string, e.g. a message sent to a port
+     */
+    synchronized void write(byte type, int id, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (begin(type, 8 + bytes.length)) {
+            region.putInt(id);
+            region.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /*
+    A record of a string and a list of IDs, e.g. an outcome and the participants it was based on
+     */
+    synchronized void write(byte type, String text, List<Integer> ids) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (begin(type, 8 + bytes.length + 4 * ids.size())) {
+            region.putInt(bytes.length).put(bytes);
+            putInts(ids);
+        }
+    }
+
+    /*
+    A record of a number and two counts, e.g. a round and how long it took, with a flag stored as 0 or 1
+     */
+    synchronized void write(byte type, int number, long first, long second) {
+        if (begin(type, 20)) {
+            region.putInt(number).putLong(first).putLong(second);
+        }
+    }
+
+    /*
+    A record of an ID and a list of strings, e.g. the voting options
+     */
+    synchronized void writeStrings(byte type, int id, List<String> texts) {
+        byte[][] encoded = new byte[texts.size()][];
+        int length = 8;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = texts.get(i).getBytes(StandardCharsets.UTF_8);
+            length += 4 + encoded[i].length;
+        }
+        if (begin(type, length)) {
+            region.putInt(id).putInt(encoded.length);
+            for (byte[] bytes : encoded) {
+                region.putInt(bytes.length).put(bytes);
+            }
+        }
+    }
+
+    /*
+    A record of an ID and a list of votes, each the port of the voter followed by its vote
+     */
+    synchronized void writeVotes(byte type, int id, List<Vote> votes) {
+        byte[][] encoded = new byte[votes.size()][];
+        int length = 8;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = votes.get(i).getVote().getBytes(StandardCharsets.UTF_8);
+            length += 8 + encoded[i].length;
+        }
+        if (begin(type, length)) {
+            region.putInt(id).putInt(encoded.length);
+            for (int i = 0; i < encoded.length; i++) {
+                region.putInt(votes.get(i).getParticipantPort()).putInt(encoded[i].length).put(encoded[i]);
+            }
+        }
+    }
+
+    /*
+    Writes the header of a record, first mapping the next region of the file if the record does not fit in this one
+    Returns false once the log is closed, or if the file could not be extended, in which case the record is lost
+     */
+    private boolean begin(byte type, int payloadBytes) {
+        if (closed) {
+            return false;
+        }
+        int recordBytes = RECORD_HEADER_BYTES + payloadBytes;
+        if (region.remaining() < recordBytes) {
+            try {
+                //The next region starts straight after the last record, so the file has no gaps
+                regionStart += region.position();
+                region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_BYTES, recordBytes));
+            } catch (IOException e) {
+                System.out.println("Failed to extend event log: " + e);
+                closed = true;
+                return false;
+            }
+        }
+        region.put(type).putLong(System.currentTimeMillis()).putInt(payloadBytes);
+        return true;
+    }
+
+    private void putInts(List<Integer> ids) {
+        region.putInt(ids.size());
+        for (int id : ids) {
+            region.putInt(id);
+        }
+    }
+
+    /*
+    Cuts the file down to the records written, so it does not end in the unused part of a region
+     */
+    synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.truncate(regionStart + region.position());
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close event log: " + e);
+        }
+    }
+}
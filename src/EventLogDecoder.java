@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/*
+Turns the binary event logs written with -Dlogger.format=binary back into the lines CoordinatorLogger and ParticipantLogger write as text
+Usage: java EventLogDecoder [-t] <file.events>...
+With -t every line is prefixed with the time its record was written, in milliseconds
+ */
+public class EventLogDecoder {
+
+    public static void main(String[] args) throws IOException {
+        boolean timestamps = false;
+        for (String arg : args) {
+            if (arg.equals("-t")) {
+                timestamps = true;
+            } else {
+                decode(arg, timestamps);
+            }
+        }
+    }
+
+    private static void decode(String fileName, boolean timestamps) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.remaining() < EventLog.HEADER_BYTES || in.getInt() != EventLog.MAGIC) {
+            throw new IOException(fileName + " is not an event log");
+        }
+        byte version = in.get();
+        if (version != EventLog.VERSION) {
+            throw new IOException(fileName + " is version " + version + " of the event log, only version " + EventLog.VERSION + " can be read");
+        }
+        byte role = in.get();
+        int processId = in.getInt();
+        String tag = role == EventLog.COORDINATOR ? "[C]" : "[P" + processId + "]";
+
+        //A file that was never closed ends in zeroes, which read as a record of type 0
+        while (in.remaining() >= EventLog.RECORD_HEADER_BYTES) {
+            byte type = in.get();
+            long time = in.getLong();
+            int length = in.getInt();
+            if (type == 0 || length > in.remaining()) {
+                break;
+            }
+            int end = in.position() + length;
+            String line = format(tag, type, in);
+            in.position(end);
+            if (line != null) {
+                System.out.println(timestamps ? time + " " + line : line);
+            }
+        }
+    }
+
+    /*
+    The text line of a record, exactly as the logger that wrote it would have formatted it, or null for an unknown record type
+     */
+    private static String format(String tag, byte type, ByteBuffer in) {
+        switch (type) {
+            case EventLog.STARTED_LISTENING:
+                return tag + " started listening on port " + in.getInt();
+            case EventLog.CONNECTION_ACCEPTED:
+                return tag + " accepted connection from port " + in.getInt();
+            case EventLog.CONNECTION_ESTABLISHED:
+                return tag + " connection established to port " + in.getInt();
+            case EventLog.MESSAGE_SENT:
+                return tag + " message sent to " + in.getInt() + ": \"" + getString(in) + "\"";
+            case EventLog.MESSAGE_RECEIVED:
+                return tag + " message received from " + in.getInt() + ": \"" + getString(in) + "\"";
+            case EventLog.PARTICIPANT_CRASHED:
+                return tag + " participant crashed: " + in.getInt();
+            case EventLog.JOIN_SENT:
+                return tag + " JOIN sent to Coordinator on port " + in.getInt();
+            case EventLog.JOIN_RECEIVED:
+                return tag + " JOIN received from " + in.getInt();
+            case EventLog.DETAILS_SENT:
+                return tag + " details sent to " + in.getInt() + ": " + getInts(in);
+            case EventLog.DETAILS_RECEIVED:
+                in.getInt();
+                return tag + " received participant ports: " + getInts(in);
+            case EventLog.VOTE_OPTIONS_SENT:
+                return tag + " vote options sent to " + in.getInt() + ": " + getStrings(in);
+            case EventLog.VOTE_OPTIONS_RECEIVED:
+                in.getInt();
+                return tag + " received vote options: " + getStrings(in);
+            case EventLog.OUTCOME_RECEIVED: {
+                int participantId = in.getInt();
+                return tag + " outcome " + getString(in) + " received from " + participantId;
+            }
+            case EventLog.BEGIN_ROUND:
+                return tag + " begin round " + in.getInt();
+            case EventLog.END_ROUND:
+                return tag + " end round " + in.getInt();
+            case EventLog.ROUND_TIME:
+                return tag + " round " + in.getInt() + " took " + in.getLong() + " ms (" + (in.getLong() != 0 ? "all participants reported" : "timed out") + ")";
+            case EventLog.ROUNDS_RUN:
+                return tag + " ran " + in.getInt() + " of " + in.getLong() + " rounds" + (in.getLong() != 0 ? " (decided early)" : "");
+            case EventLog.ROUND_BYTES:
+                return tag + " round " + in.getInt() + " sent " + in.getLong() + " bytes (" + in.getLong() + " bytes flooding)";
+            case EventLog.VOTES_SENT:
+                return tag + " votes sent to " + in.getInt() + ": " + getVotes(in);
+            case EventLog.VOTES_RECEIVED:
+                return tag + " votes received from " + in.getInt() + ": " + getVotes(in);
+            case EventLog.OUTCOME_DECIDED:
+                return tag + " outcome vote decided: " + getString(in) + "(based on votes of Participants " + getInts(in) + ")";
+            case EventLog.OUTCOME_NOTIFIED:
+                return tag + " outcome vote sent to Coordinator: " + getString(in) + "(based on votes of Participants " + getInts(in) + ")";
+            default:
+                return null;
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String getInts(ByteBuffer in) {
+        StringJoiner joined = new StringJoiner(", ");
+        for (int i = in.getInt(); i > 0; i--) {
+            joined.add(Integer.toString(in.getInt()));
+        }
+        return joined.toString();
+    }
+
+    private static String getStrings(ByteBuffer in) {
+        List<String> strings = new ArrayList<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            strings.add(getString(in));
+        }
+        return String.join(", ", strings);
+    }
+
+    private static String getVotes(ByteBuffer in) {
+        StringJoiner joined = new StringJoiner(", ");
+        for (int i = in.getInt(); i > 0; i--) {
+            int participantPort = in.getInt();
+            joined.add("<" + participantPort + ", " + getString(in) + ">");
+        }
+        return joined.toString();
+    }
+}
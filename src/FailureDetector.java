@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+A phi accrual failure detector, fed by the HEARTBEAT every process sends its peers each heartbeat.intervalMillis
+Instead of a fixed timeout, every peer gets a suspicion level phi from how late its next heartbeat is
+compared to the intervals seen so far, and is suspected once phi passes heartbeat.phi (default 8).
+On top of that a peer is always allowed to pause for heartbeat.pauseMillis (default three intervals),
+so a garbage collection or a busy machine is not taken for a crash
+
+A heartbeat is HEARTBEAT <port> <sent> <echo> <held>: the port of its sender, when it was sent,
+and the sent time of the last heartbeat the sender had from the receiver along with how long it held it,
+so the receiver can measure its round trip time with its own clock
+The variation allowed in the intervals is never less than that round trip time, so a slower link is given more slack
+
+Started with -Dheartbeat.intervalMillis=<interval> on every process (default 0, off)
+ */
+class FailureDetector {
+
+    static final long INTERVAL_MILLIS = Long.getLong("heartbeat.intervalMillis", 0);
+    static final boolean ENABLED = INTERVAL_MILLIS > 0;
+    private static final double THRESHOLD = Double.parseDouble(System.getProperty("heartbeat.phi", "8"));
+    private static final long PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("heartbeat.pauseMillis", 3 * INTERVAL_MILLIS));
+
+    //How many of the latest intervals the distribution is estimated from
+    private static final int WINDOW = 100;
+
+    private final int thisPort;
+    private final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(INTERVAL_MILLIS);
+    private final Map<Integer, Peer> peers = new HashMap<>();
+    private final Histogram rtt;
+
+    FailureDetector(int thisPort, Metrics metrics) {
+        this.thisPort = thisPort;
+        rtt = metrics.histogram("heartbeat.rtt.us");
+    }
+
+    /*
+    The next heartbeat to send a peer
+     */
+    synchronized String heartbeatFor(int port) {
+        long now = System.nanoTime();
+        Peer peer = peers.get(port);
+        if (peer == null || peer.lastSent == 0) {
+            return Message.HEARTBEAT + " " + thisPort + " " + now + " 0 0";
+        }
+        return Message.HEARTBEAT + " " + thisPort + " " + now + " " + peer.lastSent + " " + (now - peer.lastArrival);
+    }
+
+    /*
+    Records a heartbeat from a peer, returning the port it came from
+     */
+    synchronized int heartbeatReceived(String line) {
+        long now = System.nanoTime();
+        String[] data = Coordinator.getData(line);
+        int port = Integer.parseInt(data[0]);
+        long echo = Long.parseLong(data[2]);
+        Peer peer = peers.get(port);
+        if (peer == null) {
+            peer = new Peer();
+            peers.put(port, peer);
+        } else if (!peer.suspected) {
+            peer.addInterval(now - peer.lastArrival);
+        }
+        peer.lastArrival = now;
+        peer.lastSent = Long.parseLong(data[1]);
+        if (echo != 0) {
+            long sample = now - echo - Long.parseLong(data[3]);
+            peer.addRtt(sample);
+            rtt.record(TimeUnit.NANOSECONDS.toMicros(sample));
+        }
+        return port;
+    }
+
+    /*
+    Returns the peers among those given that have newly passed the threshold, each of which is only ever returned once
+    Nothing is suspected of a peer until its first heartbeat has arrived
+     */
+    synchronized List<Integer> newSuspects(Iterable<Integer> ports) {
+        long now = System.nanoTime();
+        List<Integer> suspects = new ArrayList<>();
+        for (int port : ports) {
+            Peer peer = peers.get(port);
+            if (peer != null && !peer.suspected && peer.phi(now) > THRESHOLD) {
+                peer.suspected = true;
+                suspects.add(port);
+            }
+        }
+        return suspects;
+    }
+
+    /*
+    The heartbeats of one peer
+     */
+    private class Peer {
+        //The latest intervals between heartbeats, in nanoseconds, as a ring
+        final long[] intervals = new long[WINDOW];
+        int count;
+        int next;
+        double sum;
+        double sumOfSquares;
+
+        long lastArrival;
+        //When the peer sent its last heartbeat, by its own clock, which is echoed back to it
+        long lastSent;
+        boolean suspected;
+
+        //Smoothed round trip time, in nanoseconds, -1 until measured
+        double srtt = -1;
+
+        Peer() {
+            //Until there are intervals to go on, they are taken to be the configured interval
+            addInterval(intervalNanos);
+        }
+
+        void addInterval(long interval) {
+            if (count == WINDOW) {
+                sum -= intervals[next];
+                sumOfSquares -= (double) intervals[next] * intervals[next];
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        void addRtt(long sample) {
+            srtt = srtt < 0 ? sample : 0.875 * srtt + 0.125 * sample;
+        }
+
+        /*
+        -log10 of the probability that a heartbeat would be this late if the peer were alive,
+        with the intervals taken to be normally distributed, using the logistic approximation of the normal distribution
+         */
+        double phi(long now) {
+            double mean = sum / count;
+            double variance = sumOfSquares / count - mean * mean;
+            double minDeviation = Math.max(intervalNanos / 4.0, srtt);
+            double deviation = Math.max(Math.sqrt(Math.max(variance, 0)), minDeviation);
+            mean += PAUSE_NANOS;
+            double y = (now - lastArrival - mean) / deviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - lastArrival > mean) {
+                return -Math.log10(e / (1 + e));
+            }
+            return -Math.log10(1 - 1 / (1 + e));
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+A transport for nodes running in the same JVM, e.g. started by LocalCluster, that never touches the network
+Ports are only names in this JVM, and every connection is a pair of in-memory byte queues, one for each direction
+Bytes written are queued until read, so unlike a socket a writer is never held up by a slow reader
+ */
+class InMemoryTransport implements Transport {
+
+    static final InMemoryTransport INSTANCE = new InMemoryTransport();
+
+    //The first port handed to the accepted end of a connection, as the other end's port in the logs
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    //Every node listening in this JVM, by port
+    private final Map<Integer, MemoryListener> listeners = new ConcurrentHashMap<>();
+    private final AtomicInteger nextEphemeralPort = new AtomicInteger(FIRST_EPHEMERAL_PORT);
+
+    private InMemoryTransport() {
+    }
+
+    @Override
+    public Listener listen(int port) throws IOException {
+        MemoryListener listener = new MemoryListener(port);
+        if (listeners.putIfAbsent(port, listener) != null) {
+            throw new BindException("Port " + port + " is already in use");
+        }
+        return listener;
+    }
+
+    /*
+    Connects at once if something is listening on the port, as a TCP connect completes before it is accepted
+     */
+    @Override
+    public Connection connect(int port, int timeoutMillis) throws IOException {
+        MemoryListener listener = listeners.get(port);
+        if (listener == null) {
+            throw new ConnectException("Nothing is listening on port " + port);
+        }
+        Pipe toListener = new Pipe();
+        Pipe fromListener = new Pipe();
+        listener.queue(new MemoryConnection(toListener, fromListener, nextEphemeralPort.getAndIncrement()));
+        return new MemoryConnection(fromListener, toListener, port);
+    }
+
+    private class MemoryListener implements Listener {
+
+        private final int port;
+        private final LinkedBlockingQueue<MemoryConnection> backlog = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+
+        MemoryListener(int port) {
+            this.port = port;
+        }
+
+        void queue(MemoryConnection connection) throws IOException {
+            if (closed) {
+                throw new ConnectException("Nothing is listening on port " + port);
+            }
+            backlog.add(connection);
+        }
+
+        @Override
+        public Connection accept(int timeoutMillis) throws IOException {
+            try {
+                MemoryConnection connection;
+                if (timeoutMillis == 0) {
+                    connection = backlog.take();
+                } else {
+                    connection = backlog.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+                if (connection == null) {
+                    throw new SocketTimeoutException("Accept timed out");
+                }
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                return connection;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Interrupted while accepting");
+            }
+        }
+
+        /*
+        Stops listening, waking any accept with a closed connection, and closes every connection not yet accepted
+         */
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            listeners.remove(port, this);
+            MemoryConnection waiting;
+            while ((waiting = backlog.poll()) != null) {
+                waiting.close();
+            }
+            backlog.add(new MemoryConnection(new Pipe(), new Pipe(), 0));
+        }
+    }
+
+    private static class MemoryConnection implements Connection {
+
+        private final Pipe in;
+        private final Pipe out;
+        private final int port;
+        private volatile int timeout;
+
+        MemoryConnection(Pipe in, Pipe out, int port) {
+            this.in = in;
+            this.out = out;
+            this.port = port;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return in.read(b, off, len, timeout);
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public void setSoTimeout(int timeoutMillis) {
+            timeout = timeoutMillis;
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) {
+            //Every write is delivered at once
+        }
+
+        /*
+        The other end reads to the end of what was written and then sees the connection close,
+        and anything it writes from then on fails
+         */
+        @Override
+        public void close() {
+            out.closeWriter();
+            in.closeReader();
+        }
+    }
+
+    /*
+    The bytes travelling in one direction of a connection, in the chunks they were written in
+     */
+    private static class Pipe {
+
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        //How much of the first chunk has been read
+        private int offset;
+        private boolean writerClosed;
+        private boolean readerClosed;
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (writerClosed) {
+                throw new SocketException("Socket closed");
+            }
+            if (readerClosed) {
+                throw new SocketException("Connection reset");
+            }
+            if (len > 0) {
+                chunks.add(Arrays.copyOfRange(b, off, off + len));
+                notifyAll();
+            }
+        }
+
+        synchronized int read(byte[] b, int off, int len, int timeoutMillis) throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (chunks.isEmpty() && !writerClosed && !readerClosed) {
+                long wait = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+                if (timeoutMillis != 0 && wait <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SocketException("Interrupted while reading");
+                }
+            }
+            if (readerClosed) {
+                throw new SocketException("Socket closed");
+            }
+            if (chunks.isEmpty()) {
+                return -1;
+            }
+            int read = 0;
+            while (read < len && !chunks.isEmpty()) {
+                byte[] chunk = chunks.peek();
+                int n = Math.min(len - read, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, off + read, n);
+                read += n;
+                offset += n;
+                if (offset == chunk.length) {
+                    chunks.poll();
+                    offset = 0;
+                }
+            }
+            return read;
+        }
+
+        synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        synchronized void closeReader() {
+            readerClosed = true;
+            chunks.clear();
+            offset = 0;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+Runs a coordinator, all of its participants and a logger server in this JVM, each on threads of its own
+Over -Dtransport=memory no message goes through the network stack, so the time taken is the cost of the protocol itself
+The participants listen on the ports following the coordinator's
+
+Run with: java [-Dtransport=memory] LocalCluster <cport> <lport> <number of participants> <timeout> [voting options]
+ */
+class LocalCluster {
+
+    public static void main(String[] args) throws InterruptedException {
+        int cport = Integer.parseInt(args[0]);
+        int parts = Integer.parseInt(args[2]);
+        String[] options = Coordinator.repeatQuestions(Arrays.copyOfRange(args, 4, args.length), Integer.getInteger("consensus.batch", 1));
+        Transport transport = Transport.fromProperties();
+
+        Thread loggerServer = new Thread(() -> new UDPLoggerServer(args[1]), "logger-server");
+        loggerServer.setDaemon(true);
+        loggerServer.start();
+
+        //The participants only start joining once the coordinator is listening
+        CountDownLatch coordinatorListening = new CountDownLatch(1);
+        Transport coordinatorTransport = new Transport() {
+            @Override
+            public Listener listen(int port) throws IOException {
+                Listener listener = transport.listen(port);
+                coordinatorListening.countDown();
+                return listener;
+            }
+
+            @Override
+            public Connection connect(int port, int timeoutMillis) throws IOException {
+                return transport.connect(port, timeoutMillis);
+            }
+        };
+        Thread coordinator = new Thread(() -> new Coordinator(args[0], args[1], args[2], args[3], options, coordinatorTransport), "coordinator");
+        coordinator.start();
+        if (!coordinatorListening.await(Integer.parseInt(args[3]), TimeUnit.MILLISECONDS)) {
+            System.out.println("The coordinator did not start listening on " + cport);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<Thread> participants = new ArrayList<>();
+        for (int i = 1; i <= parts; i++) {
+            String pport = Integer.toString(cport + i);
+            Thread participant = new Thread(() -> {
+                try {
+                    ParticipantLogger logger = ParticipantLogger.createLogger(Integer.parseInt(args[1]), Integer.parseInt(pport), Integer.parseInt(args[3]));
+                    new Participant(args[0], args[1], pport, args[3], transport, logger);
+                } catch (IOException e) {
+                    System.out.println("Participant " + pport + " failed: " + e);
+                }
+            }, "participant-" + pport);
+            participants.add(participant);
+            participant.start();
+        }
+        for (Thread participant : participants) {
+            participant.join();
+        }
+        coordinator.join();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(parts + " participants finished in " + millis + " ms over " + System.getProperty("transport", "tcp"));
+    }
+}
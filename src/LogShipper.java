@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ships log messages to the Logger process from a background thread, so that logging never waits on a UDP round trip.
+ * Messages are held in a bounded lock-free queue and packed many to a datagram.
+ *
+ * Configured with the system properties logger.async (default true), logger.queueCapacity (default 8192),
+ * logger.batchBytes (default 8192) and logger.overflow (block, drop-oldest or spill; default spill).
+ */
+public class LogShipper implements Runnable {
+
+    /**
+     * What to do with a new message when the queue is full
+     */
+    public enum OverflowPolicy {
+        /** wait until the shipper has made room */
+        BLOCK,
+        /** discard the oldest queued message to make room */
+        DROP_OLDEST,
+        /** do not ship the message, it is only kept in the local log file */
+        SPILL
+    }
+
+    static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("logger.async", "true"));
+
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final long BLOCK_PARK_NANOS = 100_000L;
+
+    private final UDPLoggerClient udpLoggerClient;
+    private final PrintStream localLog;
+    private final String tag;
+    private final int capacity;
+    private final int batchBytes;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ConcurrentLinkedQueue<Queued> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    //The time from a message being submitted to it being sent, and the overflow counts, if recorded
+    private final Histogram shipTime;
+    private final LongAdder droppedCount;
+    private final LongAdder spilledCount;
+
+    /**
+     * @param udpLoggerClient the client used to send batches to the Logger process
+     * @param localLog the local log file, where shipping failures and overflow counts are reported
+     * @param tag the tag that prefixes lines written to the local log, e.g. [C]
+     */
+    public LogShipper(UDPLoggerClient udpLoggerClient, PrintStream localLog, String tag) {
+        this(udpLoggerClient, localLog, tag, null);
+    }
+
+    /**
+     * @param udpLoggerClient the client used to send batches to the Logger process
+     * @param localLog the local log file, where shipping failures and overflow counts are reported
+     * @param tag the tag that prefixes lines written to the local log, e.g. [C]
+     * @param metrics the metrics of the process, where shipping latency and overflow are recorded, or null
+     */
+    LogShipper(UDPLoggerClient udpLoggerClient, PrintStream localLog, String tag, Metrics metrics) {
+        this.shipTime = metrics == null ? null : metrics.histogram("log.ship.us");
+        this.droppedCount = metrics == null ? null : metrics.counter("log.dropped");
+        this.spilledCount = metrics == null ? null : metrics.counter("log.spilled");
+        this.udpLoggerClient = udpLoggerClient;
+        this.localLog = localLog;
+        this.tag = tag;
+        this.capacity = Integer.getInteger("logger.queueCapacity", 8192);
+        this.batchBytes = Integer.getInteger("logger.batchBytes", 8192);
+        this.overflowPolicy = OverflowPolicy.valueOf(System.getProperty("logger.overflow", "spill").toUpperCase(Locale.ROOT).replace('-', '_'));
+
+        thread = new Thread(this, "log-shipper");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queues a message to be sent to the Logger process, applying the overflow policy if the queue is full
+     *
+     * @param message the log message
+     */
+    public void submit(String message) {
+        Queued queued = new Queued(message);
+        while (size.incrementAndGet() > capacity) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    size.decrementAndGet();
+                    if (closed) {
+                        spill();
+                        return;
+                    }
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    break;
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        size.decrementAndGet();
+                        dropped.incrementAndGet();
+                        if (droppedCount != null) {
+                            droppedCount.increment();
+                        }
+                        queue.add(queued);
+                        return;
+                    }
+                    size.decrementAndGet();
+                    break;
+                default:
+                    size.decrementAndGet();
+                    spill();
+                    return;
+            }
+        }
+        queue.add(queued);
+    }
+
+    private void spill() {
+        spilled.incrementAndGet();
+        if (spilledCount != null) {
+            spilledCount.increment();
+        }
+    }
+
+    /**
+     * Sends everything still queued and stops the shipper, waiting at most one timeout for it to finish and one for the last ACKs
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(udpLoggerClient.getTimeout());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        udpLoggerClient.flush();
+        if (dropped.get() > 0 || spilled.get() > 0) {
+            localLog.println(tag + " Log messages not sent to the logger server: " + dropped.get() + " dropped, " + spilled.get() + " spilled");
+        }
+    }
+
+    public void run() {
+        List<String> batch = new ArrayList<>();
+        List<Queued> shipped = new ArrayList<>();
+        while (true) {
+            Queued message = queue.poll();
+            if (message == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+
+            int bytes = 0;
+            while (message != null) {
+                size.decrementAndGet();
+                batch.add(message.text);
+                shipped.add(message);
+                bytes += message.text.length() + 8;
+                message = bytes < batchBytes ? queue.poll() : null;
+            }
+
+            try {
+                udpLoggerClient.logToServer(batch);
+                if (shipTime != null) {
+                    for (Queued queued : shipped) {
+                        Metrics.recordSince(shipTime, queued.submittedAt);
+                    }
+                }
+            } catch (IOException e) {
+                localLog.println(tag + " Exception caught: " + e.getMessage());
+                localLog.println(tag + " Stack trace: " + e.getStackTrace());
+            }
+            batch.clear();
+            shipped.clear();
+        }
+    }
+
+    /*
+    A message waiting to be shipped, with when it was submitted
+     */
+    private static class Queued {
+        final String text;
+        final long submittedAt = System.nanoTime();
+
+        Queued(String text) {
+            this.text = text;
+        }
+    }
+}
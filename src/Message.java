@@ -0,0 +1,145 @@
+import java.util.List;
+
+/*
+A single protocol message, as read from either the text format or the binary format
+Text messages keep their line, binary messages keep their decoded values and only become text when asked
+ */
+class Message {
+
+    static final String JOIN = "JOIN";
+    static final String DETAILS = "DETAILS";
+    static final String VOTE_OPTIONS = "VOTE_OPTIONS";
+    static final String VOTE = "VOTE";
+    static final String OUTCOME = "OUTCOME";
+
+    //Multi-instance mode, where every message names the consensus instance it belongs to
+    static final String PROPOSAL = "PROPOSAL";
+    static final String VOTE_FOR = "VOTE_FOR";
+    static final String OUTCOME_FOR = "OUTCOME_FOR";
+    static final String DECIDED = "DECIDED";
+
+    //Multicast dissemination, where lost rounds are asked for again with NACK <instance> <round> and sent again as
+    //ROUND <instance> <round> followed by the message that was multicast, see VoteMulticast
+    static final String NACK = "NACK";
+    static final String ROUND = "ROUND";
+
+    //Sent every heartbeat.intervalMillis to every peer, see FailureDetector
+    static final String HEARTBEAT = "HEARTBEAT";
+
+    private final String protocol;
+    private final String line;
+
+    //The instance named by PROPOSAL, VOTE_FOR, OUTCOME_FOR and DECIDED, 0 for every other message
+    private final int instance;
+
+    //DETAILS: ports, VOTE and VOTE_FOR: port and option id pairs, OUTCOME and OUTCOME_FOR: option id followed by ports
+    private final int[] values;
+    //VOTE_OPTIONS: the options
+    private final String[] strings;
+
+    private Message(String protocol, String line, int instance, int[] values, String[] strings) {
+        this.protocol = protocol;
+        this.line = line;
+        this.instance = instance;
+        this.values = values;
+        this.strings = strings;
+    }
+
+    static Message text(String line) {
+        String protocol = Coordinator.getProtocol(line);
+        return new Message(protocol, line, isTagged(protocol) ? parseInstance(line, protocol.length() + 1) : 0, null, null);
+    }
+
+    static Message binary(String protocol, int[] values, String[] strings) {
+        return new Message(protocol, null, 0, values, strings);
+    }
+
+    static Message binary(String protocol, int instance, int[] values) {
+        return new Message(protocol, null, instance, values, null);
+    }
+
+    private static boolean isTagged(String protocol) {
+        return protocol.equals(PROPOSAL) || protocol.equals(VOTE_FOR) || protocol.equals(OUTCOME_FOR) || protocol.equals(DECIDED);
+    }
+
+    /*
+    Reads the instance ID that follows the protocol name, without splitting the rest of the line
+     */
+    private static int parseInstance(String line, int from) {
+        int instance = 0;
+        int i = from;
+        for (; i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++) {
+            instance = instance * 10 + (line.charAt(i) - '0');
+        }
+        if (i == from) {
+            throw new NumberFormatException("Missing instance ID in " + line);
+        }
+        return instance;
+    }
+
+    boolean isBinary() {
+        return line == null;
+    }
+
+    String getProtocol() {
+        return protocol;
+    }
+
+    int[] getValues() {
+        return values;
+    }
+
+    int getInstance() {
+        return instance;
+    }
+
+    String[] getStrings() {
+        return strings;
+    }
+
+    /*
+    Returns the message in the text format
+    Binary messages refer to options by their position in VOTE_OPTIONS, so those options are needed to rebuild VOTE and OUTCOME
+     */
+    String toLine(List<String> options) {
+        if (line != null) {
+            return line;
+        }
+        StringBuilder text = new StringBuilder(protocol);
+        if (isTagged(protocol)) {
+            text.append(" ").append(instance);
+        }
+        switch (protocol) {
+            case VOTE:
+            case VOTE_FOR:
+                for (int i = 0; i + 1 < values.length; i += 2) {
+                    text.append(" <").append(values[i]).append(", ").append(optionName(options, values[i + 1])).append(">");
+                }
+                break;
+            case OUTCOME:
+            case OUTCOME_FOR:
+                text.append(" ").append(optionName(options, values[0]));
+                for (int i = 1; i < values.length; i++) {
+                    text.append(" ").append(values[i]);
+                }
+                break;
+            case PROPOSAL:
+            case DECIDED:
+                break;
+            case VOTE_OPTIONS:
+                for (String option : strings) {
+                    text.append(" ").append(option);
+                }
+                break;
+            default:
+                for (int value : values) {
+                    text.append(" ").append(value);
+                }
+        }
+        return text.toString();
+    }
+
+    private static String optionName(List<String> options, int optionId) {
+        return options != null && optionId >= 0 && optionId < options.size() ? options.get(optionId) : "#" + optionId;
+    }
+}
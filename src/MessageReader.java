@@ -0,0 +1,104 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/*
+Reads messages from a connection, telling text lines and binary frames apart by their first byte
+ */
+class MessageReader {
+
+    private final InputStream in;
+    private byte[] buffer = new byte[256];
+    //The length of the last text line read, which stays in the buffer until the next read
+    private int lineLength = -1;
+    private long bytesRead;
+
+    MessageReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    /*
+    Reads the next message, throwing EOFException if the connection has been closed
+     */
+    Message read() throws IOException {
+        lineLength = -1;
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed");
+        }
+        bytesRead++;
+        if (b == BinaryProtocol.MAGIC) {
+            int length = readVarint();
+            ensureCapacity(length);
+            readFully(length);
+            bytesRead += length;
+            return BinaryProtocol.decode(buffer, length);
+        }
+
+        int length = 0;
+        while (b != '\n' && b >= 0) {
+            if (b != '\r') {
+                ensureCapacity(length + 1);
+                buffer[length++] = (byte) b;
+            }
+            b = in.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+        }
+        lineLength = length;
+        return Message.text(new String(buffer, 0, length));
+    }
+
+    /*
+    Parses the votes of the last message read, which must be a text VOTE line, straight from this reader's buffer
+     */
+    int parseVotes(TextVoteParser parser, VoteSink sink) {
+        if (lineLength < 0) {
+            throw new IllegalStateException("The last message read was not a text line");
+        }
+        return parser.parse(buffer, 0, lineLength, sink);
+    }
+
+    /*
+    How many bytes have been read, up to the end of the last message
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed");
+            }
+            bytesRead++;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed frame length");
+    }
+
+    private void readFully(int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed");
+            }
+            read += n;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+        }
+    }
+}
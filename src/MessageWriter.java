@@ -0,0 +1,75 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+Writes text lines and binary frames to a connection
+Like a PrintWriter, errors are remembered rather than thrown and can be checked with checkError
+ */
+class MessageWriter {
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    private final OutputStream out;
+    private boolean error;
+    private long bytesWritten;
+
+    MessageWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out);
+    }
+
+    void println(String line) {
+        try {
+            byte[] bytes = line.getBytes();
+            out.write(bytes);
+            out.write(LINE_SEPARATOR);
+            bytesWritten += bytes.length + LINE_SEPARATOR.length;
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    void writeFrame(byte[] frame) {
+        try {
+            out.write(frame);
+            bytesWritten += frame.length;
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /*
+    How many bytes have been written, including any not yet flushed
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /*
+    The bytes println writes for a line
+     */
+    static byte[] lineBytes(String line) {
+        byte[] bytes = line.getBytes();
+        byte[] withSeparator = new byte[bytes.length + LINE_SEPARATOR.length];
+        System.arraycopy(bytes, 0, withSeparator, 0, bytes.length);
+        System.arraycopy(LINE_SEPARATOR, 0, withSeparator, bytes.length, LINE_SEPARATOR.length);
+        return withSeparator;
+    }
+
+    static int lineLength(String line) {
+        return line.getBytes().length + LINE_SEPARATOR.length;
+    }
+
+    boolean checkError() {
+        flush();
+        return error;
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/*
+The counters and histograms of one coordinator or participant, which every part of that process records into
+Counters are LongAdders and histograms are lock-free, so recording never blocks the thread doing the work
+Durations are recorded in microseconds, in metrics whose names end in .us
+
+Every registry is published over JMX as consensus:type=<role>,port=<port> unless started with -Dmetrics.jmx=false,
+and with -Dmetrics.snapshotMillis=<interval> it is also written to metrics_<role>_<port>.txt at that interval and on exit
+ */
+class Metrics {
+
+    static final String COORDINATOR = "coordinator";
+    static final String PARTICIPANT = "participant";
+
+    private static final boolean JMX = Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"));
+    private static final long SNAPSHOT_MILLIS = Long.getLong("metrics.snapshotMillis", 0);
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    //Every registry in this JVM, by role and port, as a participant and its logger share one
+    private static final ConcurrentMap<String, Metrics> REGISTRIES = new ConcurrentHashMap<>();
+
+    //Writes the snapshots of every registry in this JVM
+    private static ScheduledExecutorService snapshots;
+
+    private final String role;
+    private final int port;
+    private final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    //Set once the last snapshot has been written on exit, after which the periodic ones stop
+    private boolean snapshotsClosed;
+
+    private Metrics(String role, int port) {
+        this.role = role;
+        this.port = port;
+    }
+
+    /*
+    The registry of a coordinator or participant, created the first time it is asked for
+     */
+    static Metrics forProcess(String role, int port) {
+        Metrics metrics = REGISTRIES.get(role + port);
+        if (metrics != null) {
+            return metrics;
+        }
+        metrics = new Metrics(role, port);
+        Metrics existing = REGISTRIES.putIfAbsent(role + port, metrics);
+        if (existing != null) {
+            return existing;
+        }
+        metrics.publish();
+        return metrics;
+    }
+
+    LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /*
+    The message and byte counters of one peer, e.g. messages.sent.12402, to be looked up once and kept for that peer
+     */
+    PeerCounters peer(int peerPort) {
+        return new PeerCounters(this, peerPort);
+    }
+
+    Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /*
+    Records the time since a System.nanoTime() reading, in microseconds
+     */
+    static void recordSince(Histogram histogram, long startNanos) {
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    private void publish() {
+        if (JMX) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(),
+                        new ObjectName("consensus:type=" + role + ",port=" + port));
+            } catch (JMException e) {
+                System.out.println("Metrics not published over JMX: " + e);
+            }
+        }
+        if (SNAPSHOT_MILLIS > 0) {
+            synchronized (Metrics.class) {
+                if (snapshots == null) {
+                    snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "metrics-snapshots");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+            snapshots.scheduleAtFixedRate(this::writeSnapshot, SNAPSHOT_MILLIS, SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::writeLastSnapshot));
+        }
+    }
+
+    /*
+    Replaces the snapshot file with the current value of every metric, so a reader never sees half a snapshot
+     */
+    private synchronized void writeSnapshot() {
+        if (snapshotsClosed) {
+            return;
+        }
+        Path file = Paths.get("metrics_" + role + "_" + port + ".txt");
+        Path partial = Paths.get("metrics_" + role + "_" + port + ".txt.tmp");
+        try {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(partial))) {
+                out.println("# " + role + " " + port + " at " + System.currentTimeMillis());
+                for (Map.Entry<String, Long> metric : snapshot().entrySet()) {
+                    out.println(metric.getKey() + " " + metric.getValue());
+                }
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Failed to write metrics snapshot: " + e);
+        }
+    }
+
+    /*
+    Writes the snapshot on exit, so a periodic one cannot be cut off halfway by the JVM halting
+     */
+    private synchronized void writeLastSnapshot() {
+        writeSnapshot();
+        snapshotsClosed = true;
+    }
+
+    /*
+    Every metric by name, each histogram giving its count, mean, percentiles and maximum as metrics of their own
+     */
+    Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            values.put(entry.getKey() + ".count", histogram.getCount());
+            values.put(entry.getKey() + ".mean", Math.round(histogram.getMean()));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(entry.getKey() + "." + PERCENTILE_NAMES[i], histogram.getPercentile(PERCENTILES[i]));
+            }
+            values.put(entry.getKey() + ".max", histogram.getMax());
+        }
+        return values;
+    }
+
+    /*
+    The counters of the messages sent to and received from one peer, and of their bytes
+    Held by whatever talks to that peer, so counting a message costs two adds and no lookup
+     */
+    static final class PeerCounters {
+
+        private final LongAdder messagesSent;
+        private final LongAdder bytesSent;
+        private final LongAdder messagesReceived;
+        private final LongAdder bytesReceived;
+
+        private PeerCounters(Metrics metrics, int peerPort) {
+            messagesSent = metrics.counter("messages.sent." + peerPort);
+            bytesSent = metrics.counter("bytes.sent." + peerPort);
+            messagesReceived = metrics.counter("messages.received." + peerPort);
+            bytesReceived = metrics.counter("bytes.received." + peerPort);
+        }
+
+        void sent(long bytes) {
+            messagesSent.increment();
+            bytesSent.add(bytes);
+        }
+
+        void received(long bytes) {
+            received(1, bytes);
+        }
+
+        void received(long messages, long bytes) {
+            messagesReceived.add(messages);
+            bytesReceived.add(bytes);
+        }
+    }
+
+    /*
+    Publishes the snapshot over JMX, with every metric as a read-only attribute
+     */
+    private class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of the " + role + " on port " + port,
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
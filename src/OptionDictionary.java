@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+The table of voting options, giving each option a small integer id
+Options can be looked up straight from the bytes of a message, so parsing a known option never creates a String
+ */
+class OptionDictionary {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String> view = Collections.unmodifiableList(names);
+    private byte[][] encoded = new byte[8][];
+
+    //Open addressing table of ids, -1 marks an empty slot
+    private int[] slots;
+    private int mask;
+
+    OptionDictionary() {
+        slots = new int[16];
+        Arrays.fill(slots, -1);
+        mask = slots.length - 1;
+    }
+
+    /*
+    Returns the id of an option, adding it if it is unknown
+     */
+    int getId(String option) {
+        byte[] bytes = option.getBytes();
+        return getId(bytes, 0, bytes.length);
+    }
+
+    /*
+    Returns the id of the option encoded in bytes[from, from + length), adding it if it is unknown
+     */
+    int getId(byte[] bytes, int from, int length) {
+        int i = hash(bytes, from, length) & mask;
+        while (slots[i] >= 0) {
+            byte[] candidate = encoded[slots[i]];
+            if (equals(candidate, bytes, from, length)) {
+                return slots[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return add(Arrays.copyOfRange(bytes, from, from + length), i);
+    }
+
+    String get(int id) {
+        return names.get(id);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    /*
+    A read only view of the options in id order
+     */
+    List<String> asList() {
+        return view;
+    }
+
+    private int add(byte[] bytes, int slot) {
+        int id = names.size();
+        names.add(new String(bytes));
+        if (id == encoded.length) {
+            encoded = Arrays.copyOf(encoded, id * 2);
+        }
+        encoded[id] = bytes;
+        slots[slot] = id;
+        if (names.size() * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        mask = slots.length - 1;
+        for (int id = 0; id < names.size(); id++) {
+            int i = hash(encoded[id], 0, encoded[id].length) & mask;
+            while (slots[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int length) {
+        int h = 1;
+        for (int i = from; i < from + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] candidate, byte[] bytes, int from, int length) {
+        if (candidate.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate[i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,12 +1,25 @@
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class Participant {
 
+    //Set to virtual to read from other participants on virtual threads, on JVMs that have them (Java 21 and later)
+    private static final boolean VIRTUAL_LISTENERS = System.getProperty("participant.listeners", "platform").equalsIgnoreCase("virtual");
+
+    //The most connections to other participants that are opened at the same time
+    private static final int MAX_CONNECTING = 64;
+
+    //With multicast dissemination, how many times during a round's timeout any missing participant is asked for its votes again
+    private static final int REPAIR_SLICES = 8;
+
     private int cport;
     private int lport;
     private int pport;
@@ -14,38 +27,108 @@ public class Participant {
 
     private ParticipantLogger logger;
 
+    //The counters and histograms of this participant, see Metrics
+    private final Metrics metrics;
+    private final Histogram roundTime;
+    private final Histogram listenTime;
+    private final Histogram decisionTime;
+
+    //How this participant connects to the coordinator and the other participants, TCP unless chosen with -Dtransport
+    private final Transport transport;
+
     //The server socket for this participant
-    private ServerSocket thisClientSocket;
+    private Transport.Listener thisClientSocket;
 
-    //The print writer used by the participant to send data to the server
-    private PrintWriter serverOut;
+    //The writer used by the participant to send data to the server
+    private MessageWriter serverOut;
+
+    //The counters of the messages sent to and received from the server
+    private Metrics.PeerCounters serverCounters;
+
+    //Whether the coordinator agreed to the binary protocol, in which case every message sent is a binary frame
+    private boolean binary;
 
     //A list of all the sockets to other participants
-    private List<Socket> otherClients;
+    private List<Transport.Connection> otherClients;
 
     //A list of all the ports of other participants
     private List<Integer> otherClientsPorts;
 
-    //Each other participants print writer, used to send messages to them
-    private HashMap<Socket, PrintWriter> outputs;
+    //The counters of the messages sent to each other participant, in the same order
+    private List<Metrics.PeerCounters> otherClientsCounters;
+
+    //Each other participants writer, used to send messages to them
+    private HashMap<Transport.Connection, MessageWriter> outputs;
+
+    //A listener for every connection accepted from another participant
+    private List<ClientListener> allListeners;
+
+    //The listeners of the participants that have not crashed
+    private List<ClientListener> listeners;
+
+    //With -Dconsensus.dissemination=multicast, sends every round's votes once to all other participants, otherwise null
+    private VoteMulticast multicast;
+
+    //The listener of every other participant that has identified itself, by port, as multicast packets only name their sender
+    private Map<Integer, ClientListener> listenersById;
+
+    //With -Dconsensus.dissemination=relay, the listener of the connection to the coordinator, which relays every other participant's votes,
+    //in place of any connection to them, otherwise null
+    private ClientListener relayListener;
+
+    //With -Dheartbeat.intervalMillis, suspects other participants that stop sending heartbeats, otherwise null
+    private FailureDetector detector;
+
+    //Packets from participants whose connection has not been identified yet, handed over once it has
+    private Map<Integer, List<Runnable>> unidentifiedPackets;
+
+    //The instances being voted on, by ID, and the barrier of each one's round currently waiting for votes, absent between rounds
+    private Map<Integer, ConsensusInstance> runningInstances;
+    private Map<Integer, RoundBarrier<ClientListener>> barriers;
+
+    //The highest instance that has been started, votes for any instance up to it that is not running are no longer needed
+    private int highestStarted = -1;
 
-    //A list of all the readers used to receive inputs from other clients
-    private List<BufferedReader> inputs;
+    //How many other participants have been found to have crashed
+    private int crashCount;
 
-    //A list of all unique votes overall
-    private List<Vote> votes;
+    //Set once the outcome is decided, after which a closed connection is no longer a crash
+    private volatile boolean votingFinished;
 
-    //A list of all votes received this round
-    private List<Vote> newVotes;
+    //Whether the coordinator sends a stream of proposals rather than a single vote
+    private final boolean multiInstance = ConsensusInstance.PROPOSALS > 0;
 
-    private int round = 1;
-    //USED FOR LOGGING
-    private HashMap<BufferedReader, Socket> inputsSockets;
-    private HashMap<Integer,Integer> portToID;
+    //The reader of the connection to the coordinator, which proposals arrive on in multi-instance mode
+    private MessageReader serverIn;
+
+    //The position of every participant in DETAILS, starting with this one, used to track which votes each peer holds
+    private Map<Integer, Integer> voterIndex;
+
+    //The options of every question sent in VOTE_OPTIONS, more than one when the coordinator sends a batch of questions
+    private List<String[]> questions;
+
+    //Every voting option in the order sent in VOTE_OPTIONS, followed by any unknown options received from other participants
+    private OptionDictionary optionTable;
+    private int knownOptions;
+
+    //Parses text VOTE lines straight from each reader's buffer, into receiveVote
+    private TextVoteParser voteParser;
+    private final VoteSink voteSink = this::receiveVote;
+    //The votes of the VOTE message currently being parsed, and the port of the last of them
+    private List<Vote> holdVotes;
+    private int holdPort;
 
     public static void main(String[] args) {
         try {
-            new Participant(args[0], args[1], args[2], args[3]);
+            ParticipantLogger logger = null;
+            try {
+                ParticipantLogger.initLogger(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+                logger = ParticipantLogger.getLogger();
+            }
+            catch (IOException e){
+                System.out.println("Failed to initialise participant logger");
+            }
+            new Participant(args[0], args[1], args[2], args[3], Transport.fromProperties(), logger);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -53,33 +136,40 @@ public class Participant {
 
     /*
     Constructor
+    Runs the whole life of the participant, so several can share a JVM on threads of their own, each with its own logger
      */
-    private Participant(String cport, String lport, String pport, String timeout) throws IOException {
+    Participant(String cport, String lport, String pport, String timeout, Transport transport, ParticipantLogger logger) throws IOException {
         this.cport = Integer.parseInt(cport);
         this.lport = Integer.parseInt(lport);
         this.pport = Integer.parseInt(pport);
         this.timeout = Integer.parseInt(timeout);
-
-        try {
-            ParticipantLogger.initLogger(this.lport, this.pport, this.timeout);
-            logger = ParticipantLogger.getLogger();
-        }
-        catch (IOException e){
-            System.out.println("Failed to initialise participant logger");
-        }
+        this.transport = transport;
+        this.logger = logger;
+        metrics = Metrics.forProcess(Metrics.PARTICIPANT, this.pport);
+        roundTime = metrics.histogram("round.us");
+        listenTime = metrics.histogram("round.listen.us");
+        decisionTime = metrics.histogram("decision.us");
 
         otherClients = new ArrayList<>();
         otherClientsPorts = new ArrayList<>();
+        otherClientsCounters = new ArrayList<>();
         outputs = new HashMap<>();
-        inputs = new ArrayList<>();
-        votes = new ArrayList<>();
-        newVotes = new ArrayList<>();
+        allListeners = new ArrayList<>();
+        listeners = new CopyOnWriteArrayList<>();
+        runningInstances = new HashMap<>();
+        barriers = new HashMap<>();
+        listenersById = new HashMap<>();
+        unidentifiedPackets = new HashMap<>();
+        optionTable = new OptionDictionary();
+        voteParser = new TextVoteParser(optionTable);
 
-        thisClientSocket = new ServerSocket(this.pport);
-        thisClientSocket.setSoTimeout(this.timeout);
-
-        inputsSockets = new HashMap<>();
-        portToID = new HashMap<>();
+        thisClientSocket = transport.listen(this.pport);
+        if (FailureDetector.ENABLED) {
+            detector = new FailureDetector(this.pport, metrics);
+        }
+        if (VoteMulticast.ENABLED) {
+            multicast = new VoteMulticast(this.pport, Integer.getInteger("multicast.port", this.cport), this::packetReceived);
+        }
 
         serverInitRequest();
     }
@@ -89,24 +179,54 @@ public class Participant {
     Receives the needed information from the server when ready and chooses a vote
      */
     private void serverInitRequest() throws IOException {
-        Socket server = new Socket(InetAddress.getLocalHost(), cport);
-        serverOut = new PrintWriter(server.getOutputStream());
-        serverOut.println("JOIN " + pport);
+        Transport.Connection server = transport.connect(cport, 0);
+        //Every message is flushed as soon as it is written, so there is nothing for Nagle's algorithm to save
+        server.setTcpNoDelay(multiInstance);
+        serverOut = new MessageWriter(server.getOutputStream());
+        serverCounters = metrics.peer(cport);
+        serverOut.println("JOIN " + pport + (BinaryProtocol.REQUESTED ? " " + BinaryProtocol.JOIN_FLAG : ""));
         logger.joinSent(cport);
         serverOut.flush();
+        serverCounters.sent(serverOut.getBytesWritten());
 
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(server.getInputStream()));
-        String details = in.readLine();
-        String voteOptions = in.readLine();
+        serverIn = new MessageReader(server.getInputStream());
+        Message detailsMessage = serverIn.read();
+        Message voteOptionsMessage = serverIn.read();
+        serverCounters.received(2, serverIn.getBytesRead());
+        binary = detailsMessage.isBinary();
+        String details = detailsMessage.toLine(null);
+        String voteOptions = voteOptionsMessage.toLine(null);
         System.out.println(details);
         System.out.println(voteOptions);
 
-        setOtherParticipants(details);
-        logger.detailsReceived(otherClientsPorts);
+        Map<Integer, Integer> voters = new HashMap<>();
+        List<Integer> detailsPorts = new ArrayList<>();
+        voters.put(pport, 0);
+        for (String port : Coordinator.getData(details)) {
+            voters.put(Integer.parseInt(port), voters.size());
+            detailsPorts.add(Integer.parseInt(port));
+        }
+        synchronized (this) {
+            voterIndex = voters;
+        }
+        if (VoteRelay.ENABLED) {
+            //Votes come through the coordinator, so no other participant is connected to
+            relayListener = new ClientListener(server, serverIn);
+            relayListener.identify(cport);
+            logger.detailsReceived(detailsPorts);
+        } else {
+            setOtherParticipants(details);
+            logger.detailsReceived(otherClientsPorts);
+        }
         logger.voteOptionsReceived(Arrays.asList(voteOptions.split(" ")));
-        Vote chosenOption = new Vote(pport, getRandomOption(Coordinator.getData(voteOptions)));
-        newVotes.add(chosenOption);
+        questions = ConsensusInstance.splitQuestions(Coordinator.getData(voteOptions));
+        for (String[] options : questions) {
+            for (String option : options) {
+                optionTable.getId(option);
+            }
+        }
+        knownOptions = optionTable.size();
 
         beginVotingCycle();
 
@@ -118,242 +238,849 @@ public class Participant {
     Then the participant will multicast any need votes
     Then it will listen for votes from all known other participants
      */
-    private void beginVotingCycle() {
+    private void beginVotingCycle() throws IOException {
         try {
-            connectToParticipants();
-            for (; round <= otherClients.size(); round++) {
-                logger.beginRound(round);
+            if (relayListener != null) {
+                listenToRelay();
+            } else {
+                connectToParticipants();
+            }
+            startHeartbeats();
+            if (multiInstance) {
+                runProposals();
+            } else {
+                ConsensusInstance instance = startInstance(0);
+                runInstance(instance);
+                votingFinished = true;
+                sendOutcome(instance);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+    Votes on every proposal the coordinator sends, over the connections already open
+    Up to consensus.pipeline proposals are voted on at once, each on its own thread, with their rounds interleaved on the connections
+    Stops after the last proposal or once the coordinator closes its connection, which with relay dissemination it waits for, as relayed votes arrive after the last proposal
+     */
+    private void runProposals() throws IOException, InterruptedException {
+        ExecutorService pipeline = Executors.newFixedThreadPool(ConsensusInstance.PIPELINE_DEPTH);
+        int proposals = 0;
+        //Relayed votes for the last proposals still arrive after them, until the coordinator closes the connection
+        while (proposals < ConsensusInstance.PROPOSALS || relayListener != null) {
+            Message message;
+            long read = serverIn.getBytesRead();
+            try {
+                message = serverIn.read();
+            } catch (EOFException e) {
+                //Instances still waiting for their votes to be relayed never will be
+                synchronized (this) {
+                    if (relayListener != null && !runningInstances.isEmpty()) {
+                        connectionLost(relayListener);
+                    }
+                }
+                break;
+            }
+            serverCounters.received(serverIn.getBytesRead() - read);
+            if (relayListener != null && message.getProtocol().equals(Message.VOTE_FOR)) {
+                logger.messageReceived(cport, message.toLine(optionTable.asList()));
+                receiveVotes(relayListener, serverIn, message);
+            } else if (message.getProtocol().equals(Message.PROPOSAL)) {
+                ConsensusInstance instance = startInstance(message.getInstance());
+                pipeline.execute(() -> {
+                    try {
+                        runInstance(instance);
+                        sendOutcome(instance);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                });
+                proposals++;
+            }
+        }
+        pipeline.shutdown();
+        pipeline.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        votingFinished = true;
+    }
 
-                removeDuplicateNewVotes();
-                sendVotes(convertVotesToString());
-                newVotes.clear();
+    /*
+    Chooses a vote for an instance and starts accepting votes for it
+     */
+    private synchronized ConsensusInstance startInstance(int id) {
+        ConsensusInstance instance = new ConsensusInstance(id, optionTable, knownOptions, questions, voterIndex);
+        instance.addNewVote(createVote(pport, chooseVote()));
+        runningInstances.put(id, instance);
+        highestStarted = Math.max(highestStarted, id);
+        return instance;
+    }
 
-                listenToVotes();
+    /*
+    Runs every round of an instance, returning once it can be decided
+     */
+    private void runInstance(ConsensusInstance instance) throws InterruptedException {
+        //f crashes need f + 1 rounds, and no more than a round per other participant is ever needed
+        //When the coordinator relays the votes every participant is sent the same ones, so one round is always enough
+        int maxRounds = relayListener != null ? 1 : otherClients.size();
+        if (ConsensusInstance.FAULT_BOUND >= 0) {
+            maxRounds = Math.min(ConsensusInstance.FAULT_BOUND + 1, maxRounds);
+        }
+        //With relay dissemination only the votes relayed back count, this participant's own included,
+        //so one whose vote reached the coordinator too late decides on the same votes as every other
+        List<Vote> ownVotes = relayListener != null ? new ArrayList<>(instance.getNewVotes()) : null;
+        int round = 1;
+        boolean decidedEarly = false;
+        for (; round <= maxRounds && !decidedEarly; round++) {
+            long roundStart = System.nanoTime();
+            logger.beginRound(round);
 
-                printVotes();
+            if (relayListener == null) {
+                instance.removeDuplicateNewVotes();
+            }
+            sendVotes(instance, round);
+            instance.clearNewVotes();
 
-                logger.endRound(round);
+            int crashesBefore = getCrashCount();
+            long listenStart = System.nanoTime();
+            boolean allReported = listenToVotes(instance);
+            Metrics.recordSince(listenTime, listenStart);
+
+            //Without the coordinator, or if it relays no votes at all, this participant falls back on its own
+            if (ownVotes != null && (!allReported || instance.getNewVotes().isEmpty())) {
+                ownVotes.forEach(instance::addNewVote);
+            }
+
+            //A round in which every participant reported and nothing new was learned means every live participant
+            //already holds every vote this one holds, and it cannot learn anything else, so it can decide now
+            decidedEarly = ConsensusInstance.EARLY_DECIDING && round < maxRounds && allReported
+                    && getCrashCount() == crashesBefore && !instance.hasUnseenNewVotes();
+
+            instance.printVotes();
+
+            logger.endRound(round);
+            logger.roundTime(round, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - roundStart), allReported);
+            Metrics.recordSince(roundTime, roundStart);
+        }
+        //The votes received in the last round count towards the outcome too
+        instance.removeDuplicateNewVotes();
+        if (decidedEarly) {
+            sendDecided(instance, round);
+        }
+        logger.roundsRun(round - 1, maxRounds, decidedEarly);
+        finishInstance(instance);
+    }
+
+    /*
+    Tells every other participant that no more votes will be sent for an instance, so they do not wait for them
+    With multicast dissemination it is multicast as the round after the last, so it cannot overtake the last votes
+     */
+    private void sendDecided(ConsensusInstance instance, int round) {
+        if (multicast != null) {
+            byte[] message = binary ? BinaryProtocol.encodeDecided(instance.getId()) : MessageWriter.lineBytes("DECIDED " + instance.getId());
+            multicastRound(instance.getId(), round, message);
+            logger.messageSent(multicast.getGroupPort(), "DECIDED " + instance.getId());
+            return;
+        }
+        for (int i = 0; i < otherClients.size(); i++) {
+            Transport.Connection client = otherClients.get(i);
+            MessageWriter out = outputs.get(client);
+            long written;
+            synchronized (out) {
+                written = out.getBytesWritten();
+                if (binary) {
+                    out.writeFrame(BinaryProtocol.encodeDecided(instance.getId()));
+                } else {
+                    out.println("DECIDED " + instance.getId());
+                }
+                out.flush();
+                written = out.getBytesWritten() - written;
+            }
+            otherClientsCounters.get(i).sent(written);
+            logger.messageSent(client.getPort(), "DECIDED " + instance.getId());
+        }
+    }
+
+    private synchronized int getCrashCount() {
+        return crashCount;
+    }
+
+    /*
+    Forgets an instance once it has been decided, along with any votes for it that arrive late
+     */
+    private synchronized void finishInstance(ConsensusInstance instance) {
+        runningInstances.remove(instance.getId());
+        for (ClientListener listener : allListeners) {
+            listener.pending.remove(instance.getId());
+            listener.decided.remove(instance.getId());
+            listener.nextRound.remove(instance.getId());
+            listener.nacked.remove(instance.getId());
+        }
+        if (multicast != null) {
+            //Others may still ask for the last rounds of recent instances
+            multicast.forgetBefore(instance.getId() - 2 * ConsensusInstance.PIPELINE_DEPTH);
+        }
+    }
+
+    /*
+    Sends the OUTCOME of an instance to the coordinator, tagged with the instance in multi-instance mode
+     */
+    private void sendOutcome(ConsensusInstance instance) {
+        //The outcome is read once and the same snapshot is logged and sent
+        String outcome = instance.decideMajorityVote();
+        if (outcome == null) {
+            //Without a single vote there is nothing to decide, and the coordinator stops waiting for this participant at its timeout
+            System.out.println("No votes to decide instance " + instance.getId() + " on");
+            return;
+        }
+        List<Integer> portsUsed = instance.getPortsUsed();
+        logger.outcomeDecided(outcome, portsUsed);
+        int outcomeId = binary ? optionTable.getId(outcome) : 0;
+        long written;
+        synchronized (serverOut) {
+            written = serverOut.getBytesWritten();
+            if (binary && multiInstance) {
+                serverOut.writeFrame(BinaryProtocol.encodeOutcomeFor(instance.getId(), outcomeId, portsUsed));
+            } else if (binary) {
+                serverOut.writeFrame(BinaryProtocol.encodeOutcome(outcomeId, portsUsed));
+            } else if (multiInstance) {
+                serverOut.println("OUTCOME_FOR " + instance.getId() + " " + outcome + convertPortListToString(portsUsed));
+            } else {
+                serverOut.println("OUTCOME " + outcome + convertPortListToString(portsUsed));
             }
-            logger.outcomeDecided(decideMajorityVote(),getPortsUsed());
-            serverOut.println("OUTCOME " + decideMajorityVote() + convertPortListToString(getPortsUsed()));
-            logger.outcomeNotified(decideMajorityVote(),getPortsUsed());
             serverOut.flush();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            written = serverOut.getBytesWritten() - written;
         }
+        serverCounters.sent(written);
+        Metrics.recordSince(decisionTime, instance.getStartedAt());
+        logger.outcomeNotified(outcome, portsUsed);
     }
 
     /*
     Awaits socket requests from all known participants
-    After a timeout, it will stop waiting
+    Once every participant in DETAILS has connected, or after a timeout, it will stop waiting and start a listener for every connection accepted
      */
     private void connectToParticipants() {
         int i = 0;
         try {
             logger.startedListening();
-            while (true) {
-                Socket client = thisClientSocket.accept();
-                BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-                inputs.add(in);
+            long deadline = System.currentTimeMillis() + timeout;
+            //voterIndex holds every participant in DETAILS as well as this one
+            while (i < voterIndex.size() - 1) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new SocketTimeoutException();
+                }
+                Transport.Connection client = thisClientSocket.accept((int) wait);
+                ClientListener listener = new ClientListener(client);
+                allListeners.add(listener);
+                listeners.add(listener);
 
-                inputsSockets.put(in,client);
                 logger.connectionAccepted(client.getPort());
                 i++;
             }
+            System.out.println("Connection Listener Complete: " + i);
         } catch (SocketTimeoutException e) {
             System.out.println("Connection Listener Timeout: " + i);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        for (ClientListener listener : allListeners) {
+            startListener(listener);
+        }
     }
 
     /*
-        The participant will send all new votes to every other participant
+    Waits for votes from the coordinator alone, as if it were the only other participant
+    In multi-instance mode the proposals are read from the same connection, so the votes are read along with them instead
      */
-    private void sendVotes(String voteString) {
-        PrintWriter out;
-        for (Socket client : otherClients) {
-            out = outputs.get(client);
-            out.println("VOTE" + voteString);
-            logger.messageSent(client.getPort(),"VOTE" + voteString);
-            out.flush();
-            logger.votesSent(client.getPort(), newVotes);
+    private void listenToRelay() {
+        allListeners.add(relayListener);
+        listeners.add(relayListener);
+        if (!multiInstance) {
+            startListener(relayListener);
+        }
+    }
+
+    /*
+    Sends a heartbeat to every other participant and the coordinator every heartbeat.intervalMillis,
+    and treats any participant the failure detector suspects as crashed, so no round waits on it any longer
+     */
+    private void startHeartbeats() {
+        if (detector == null) {
+            return;
         }
+        ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heartbeats-" + pport);
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleAtFixedRate(this::heartbeat, 0, FailureDetector.INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
-    private void removeDuplicateNewVotes(){
-        List<Vote> holdVotes = new ArrayList<>();
-        for(Vote vote : newVotes){
-            if(isVoteNew(vote)){
-                holdVotes.add(vote);
-                votes.add(vote);
+    private void heartbeat() {
+        for (int port : otherClientsPorts) {
+            MessageWriter out = outputTo(port);
+            synchronized (out) {
+                out.println(detector.heartbeatFor(port));
+                out.flush();
+            }
+        }
+        synchronized (serverOut) {
+            serverOut.println(detector.heartbeatFor(cport));
+            serverOut.flush();
+        }
+
+        Map<Integer, ClientListener> live = new HashMap<>();
+        synchronized (this) {
+            for (ClientListener listener : listeners) {
+                if (listener.participantId != 0) {
+                    live.put(listener.participantId, listener);
+                }
+            }
+        }
+        for (int port : detector.newSuspects(live.keySet())) {
+            ClientListener listener = live.get(port);
+            System.out.println("Participant " + port + " suspected by the failure detector");
+            metrics.counter("suspicions").increment();
+            participantCrashed(listener);
+            try {
+                listener.socket.close();
+            } catch (IOException e) {
+                //It is no longer read either way
             }
         }
-        newVotes = holdVotes;
     }
 
     /*
-    Will check all recently received votes
-    Any new votes will be added to the list of all votes and be appended to a vote string to be multicasted
+    Called by a listener for every heartbeat, which also identifies the other participant
      */
-    private String convertVotesToString() {
-        StringBuilder strVotes = new StringBuilder();
-        for (Vote vote : newVotes) {
-            //if (isVoteNew(vote)) {
-                //votes.add(vote);
-                strVotes.append(" ").append(vote);
-            //}
+    private void heartbeatReceived(ClientListener listener, Message message) {
+        metrics.counter("heartbeats.received").increment();
+        String line = message.toLine(null);
+        int port = detector != null ? detector.heartbeatReceived(line) : Integer.parseInt(Coordinator.getData(line)[0]);
+        if (listener.participantId == 0) {
+            peerIdentified(listener, port);
         }
-        //newVotes.clear();
-        return strVotes.toString();
     }
 
     /*
-    Returns true if a given vote is a new unique vote
+    Starts a listener on a platform thread, or on a virtual thread if they were asked for and the JVM has them
      */
-    private boolean isVoteNew(Vote newVote) {
-        for (Vote vote : votes) {
-            if (vote.getParticipantPort() == newVote.getParticipantPort() && vote.getVote().equals(newVote.getVote())) {
-                return false;
+    private void startListener(ClientListener listener) {
+        Thread thread = null;
+        if (VIRTUAL_LISTENERS) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                thread = (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class).invoke(builder, listener);
+            } catch (ReflectiveOperationException e) {
+                //Not available before Java 21
             }
         }
-        return true;
+        if (thread == null) {
+            thread = new Thread(listener, "listener-" + listener.socket.getPort());
+            thread.setDaemon(true);
+        }
+        thread.start();
     }
 
+    /*
+        The participant will send all new votes to every other participant
+     */
+    private void sendVotes(ConsensusInstance instance, int round) {
+        if (multicast != null) {
+            multicastVotes(instance, round);
+            return;
+        }
+        if (relayListener != null) {
+            sendVotesToRelay(instance, round);
+            return;
+        }
+        MessageWriter out;
+        List<Vote> newVotes = instance.getNewVotes();
+        String protocol = multiInstance ? "VOTE_FOR " + instance.getId() : "VOTE";
+        //Each participant only gets the votes it is not already known to hold
+        List<List<Vote>> deltas = new ArrayList<>(otherClients.size());
+        synchronized (this) {
+            for (int port : otherClientsPorts) {
+                deltas.add(instance.takeNewVotesFor(port));
+            }
+        }
+
+        long bytesSent = 0;
+        for (int i = 0; i < otherClients.size(); i++) {
+            Transport.Connection client = otherClients.get(i);
+            List<Vote> delta = deltas.get(i);
+            String voteString = ConsensusInstance.convertVotesToString(delta);
+            out = outputs.get(client);
+            //Instances in the pipeline share each connection, so a whole message is written before another can start
+            long written;
+            synchronized (out) {
+                written = out.getBytesWritten();
+                if (binary) {
+                    out.writeFrame(encodeVotes(instance, delta));
+                } else {
+                    out.println(protocol + voteString);
+                }
+                out.flush();
+                written = out.getBytesWritten() - written;
+            }
+            bytesSent += written;
+            otherClientsCounters.get(i).sent(written);
+            logger.messageSent(client.getPort(),protocol + voteString);
+            logger.votesSent(client.getPort(), delta);
+        }
+
+        long floodingBytes = binary ? encodeVotes(instance, newVotes).length
+                : MessageWriter.lineLength(protocol + ConsensusInstance.convertVotesToString(newVotes));
+        logger.roundBytes(round, bytesSent, floodingBytes * otherClients.size());
+    }
 
     /*
-    Listens to votes from all connected participants
-    This method will only proceed once every connected participant has sent its votes
+    Sends every new vote once to the multicast group, where every other participant receives the same message
+     */
+    private void multicastVotes(ConsensusInstance instance, int round) {
+        List<Vote> newVotes = instance.getNewVotes();
+        String line = (multiInstance ? "VOTE_FOR " + instance.getId() : "VOTE") + ConsensusInstance.convertVotesToString(newVotes);
+        byte[] message = binary ? encodeVotes(instance, newVotes) : MessageWriter.lineBytes(line);
+        multicastRound(instance.getId(), round, message);
+        logger.messageSent(multicast.getGroupPort(), line);
+        logger.votesSent(multicast.getGroupPort(), newVotes);
+        logger.roundBytes(round, message.length, (long) message.length * otherClients.size());
+    }
+
+    /*
+    Sends every new vote to the coordinator, which relays them to every participant
      */
-    private void listenToVotes() throws InterruptedException {
-        ExecutorService es = Executors.newCachedThreadPool();
-        for (BufferedReader in : inputs) {
-            es.execute(new ClientListener(in));
+    private void sendVotesToRelay(ConsensusInstance instance, int round) {
+        List<Vote> newVotes = instance.getNewVotes();
+        String line = (multiInstance ? "VOTE_FOR " + instance.getId() : "VOTE") + ConsensusInstance.convertVotesToString(newVotes);
+        long written;
+        synchronized (serverOut) {
+            written = serverOut.getBytesWritten();
+            if (binary) {
+                serverOut.writeFrame(encodeVotes(instance, newVotes));
+            } else {
+                serverOut.println(line);
+            }
+            serverOut.flush();
+            written = serverOut.getBytesWritten() - written;
         }
-        es.shutdown();
-        es.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        serverCounters.sent(written);
+        logger.messageSent(cport, line);
+        logger.votesSent(cport, newVotes);
+        logger.roundBytes(round, written, written * (voterIndex.size() - 1));
     }
 
     /*
-    Parses the received data and adds any new votes parsed to the newVotes list
+    Multicasts a round's message, or sends it over every connection if it is too big for a datagram or the multicast fails
      */
-    private void addVotes(String[] data, BufferedReader in) {
-        int port = 0;
-        String choice;
+    private void multicastRound(int instance, int round, byte[] message) {
+        try {
+            if (multicast.send(instance, round, message)) {
+                metrics.counter("multicast.sent").increment();
+                metrics.counter("multicast.bytes.sent").add(message.length);
+                return;
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to multicast votes: " + e);
+        }
+        for (int port : otherClientsPorts) {
+            sendRound(port, instance, round, message);
+        }
+    }
 
-        List<Vote> holdVotes = new ArrayList<>();
+    /*
+    Sends a round's message over the connection to one participant, tagged with its round like a multicast packet
+     */
+    private void sendRound(int port, int instance, int round, byte[] message) {
+        MessageWriter out = outputTo(port);
+        if (out == null) {
+            return;
+        }
+        long written;
+        synchronized (out) {
+            written = out.getBytesWritten();
+            out.println(Message.ROUND + " " + instance + " " + round);
+            //The message is written exactly as it was multicast
+            out.writeFrame(message);
+            out.flush();
+            written = out.getBytesWritten() - written;
+        }
+        countersTo(port).sent(written);
+        logger.messageSent(port, Message.ROUND + " " + instance + " " + round);
+    }
 
-        for (int i = 0; i < data.length; i++) {
-            port = Integer.parseInt(data[i]);
-            i++;
-            choice = data[i];
-            newVotes.add(new Vote(port, choice));
-            holdVotes.add(new Vote(port,choice));
+    /*
+    Asks another participant to send its messages for an instance again, from a round on
+     */
+    private void requestRounds(int port, int instance, int round) {
+        MessageWriter out = outputTo(port);
+        if (out == null) {
+            return;
         }
-        if(round == 1){
-            logger.votesReceived(port,holdVotes);
-            portToID.put(inputsSockets.get(in).getPort(),port);
+        long written;
+        synchronized (out) {
+            written = out.getBytesWritten();
+            out.println(Message.NACK + " " + instance + " " + round);
+            out.flush();
+            written = out.getBytesWritten() - written;
         }
-        else{
-            logger.votesReceived(portToID.get(inputsSockets.get(in).getPort()),holdVotes);
+        metrics.counter("nacks.sent").increment();
+        countersTo(port).sent(written);
+        logger.messageSent(port, Message.NACK + " " + instance + " " + round);
+    }
+
+    /*
+    Sends another participant every message it asked for again
+     */
+    private void resendRounds(int port, int instance, int round) {
+        for (byte[] message : multicast.sentSince(instance, round)) {
+            sendRound(port, instance, round++, message);
+            metrics.counter("rounds.resent").increment();
         }
+    }
 
+    /*
+    The writer of the connection to another participant, or null if there is none
+     */
+    private MessageWriter outputTo(int port) {
+        int i = otherClientsPorts.indexOf(port);
+        return i < 0 ? null : outputs.get(otherClients.get(i));
     }
 
     /*
-    Calculates the majority vote from all its votes
+    The counters of the messages sent to another participant, or null if there is no connection to it
      */
-    private String decideMajorityVote() {
-        HashMap<String, Integer> voteCount = new HashMap<>();
-        String voteString;
-        Integer currentCount;
-        for (Vote vote : votes) {
-            voteString = vote.getVote();
-            currentCount = voteCount.get(voteString);
-            if (currentCount != null) {
-                voteCount.put(voteString, currentCount + 1);
-            } else {
-                voteCount.put(voteString, 1);
+    private Metrics.PeerCounters countersTo(int port) {
+        int i = otherClientsPorts.indexOf(port);
+        return i < 0 ? null : otherClientsCounters.get(i);
+    }
+
+    private byte[] encodeVotes(ConsensusInstance instance, List<Vote> votes) {
+        return multiInstance ? BinaryProtocol.encodeVotesFor(instance.getId(), votes) : BinaryProtocol.encodeVotes(votes);
+    }
+
+    /*
+    Creates a vote, identifying its option by its index in the option table
+     */
+    private Vote createVote(int port, String choice) {
+        return new Vote(port, choice, optionTable.getId(choice));
+    }
+
+
+    /*
+    Listens to votes from all connected participants
+    Each participant's votes for this round are either already waiting or are handed over by its listener as they arrive
+    This method proceeds as soon as every connected participant has sent its votes or been found to have crashed,
+    or once the timeout passes, in which case any participant that has still not sent its votes is treated as crashed
+    Returns true if the round ended without waiting for the timeout
+     */
+    private boolean listenToVotes(ConsensusInstance instance) throws InterruptedException {
+        RoundBarrier<ClientListener> barrier;
+        synchronized (this) {
+            List<ClientListener> waitingOn = new ArrayList<>();
+            for (ClientListener listener : listeners) {
+                if (!listener.decided.contains(instance.getId())) {
+                    waitingOn.add(listener);
+                }
+            }
+            barrier = new RoundBarrier<>(waitingOn);
+            barriers.put(instance.getId(), barrier);
+            for (ClientListener listener : allListeners) {
+                ArrayDeque<List<Vote>> early = listener.pending.get(instance.getId());
+                if (early != null && !early.isEmpty()) {
+                    instance.receiveVotes(listener.participantId, early.poll());
+                    barrier.arrive(listener);
+                }
             }
         }
+        boolean allReported = awaitVotes(instance, barrier);
+        synchronized (this) {
+            barriers.remove(instance.getId());
+            for (ClientListener listener : barrier.close()) {
+                System.out.println("Timeout with participant");
+                metrics.counter("timeouts").increment();
+                participantCrashed(listener);
+            }
+        }
+        return allReported;
+    }
 
-        String maxVote = null;
-        for (String vote : voteCount.keySet()) {
-            if (maxVote == null || voteCount.get(vote) > voteCount.get(maxVote)) {
-                maxVote = vote;
+    /*
+    Waits for every participant to report in a round, or for the timeout
+    With multicast dissemination a lost packet would otherwise only be noticed once a later one arrives,
+    so whoever is still missing is asked for its votes again a few times during the timeout
+     */
+    private boolean awaitVotes(ConsensusInstance instance, RoundBarrier<ClientListener> barrier) throws InterruptedException {
+        if (relayListener != null) {
+            //The coordinator relays the votes once its own timeout passes at the latest, and closes the connection if it crashes
+            //If it stops without either, the vote cannot finish anyway, as the OUTCOME has nowhere to go
+            while (!barrier.await(timeout)) {
+                metrics.counter("relay.waits").increment();
+            }
+            //The coordinator only counts as reporting if its votes arrived before its connection was lost
+            return !barrier.isSuspected(relayListener);
+        }
+        if (multicast == null) {
+            return barrier.await(timeout);
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        long wait;
+        while ((wait = deadline - System.currentTimeMillis()) > 0) {
+            if (barrier.await(Math.min(wait, Math.max(1, timeout / REPAIR_SLICES)))) {
+                return true;
             }
+            Map<Integer, Integer> missing = new HashMap<>();
+            synchronized (this) {
+                for (ClientListener listener : barrier.getOutstanding()) {
+                    if (listener.participantId != 0) {
+                        missing.put(listener.participantId, listener.nextRound.getOrDefault(instance.getId(), 1));
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Integer> peer : missing.entrySet()) {
+                requestRounds(peer.getKey(), instance.getId(), peer.getValue());
+            }
+        }
+        return barrier.await(0);
+    }
+
+    /*
+    Stops waiting on a participant that has crashed, logging its ID if it is known
+     */
+    private synchronized void participantCrashed(ClientListener listener) {
+        if (listener.crashed) {
+            return;
+        }
+        listener.crashed = true;
+        listeners.remove(listener);
+        crashCount++;
+        metrics.counter("crashes").increment();
+        //Other instances in the pipeline stop waiting for it too
+        for (RoundBarrier<ClientListener> barrier : barriers.values()) {
+            barrier.suspect(listener);
         }
+        if (listener.participantId != 0) {
+            logger.participantCrashed(listener.participantId);
+        } else {
+            System.out.println("Unable to identify crashed participants ID");
+        }
+    }
 
-        return maxVote;
+    /*
+    Called by a listener whose connection has failed or been closed
+     */
+    private synchronized void connectionLost(ClientListener listener) {
+        if (votingFinished || listener.crashed) {
+            return;
+        }
+        System.out.println("Connection error with participant");
+        participantCrashed(listener);
     }
 
     /*
-    Returns a string of all participants ports that contributed to the list of votes
+    Parses a VOTE or VOTE_FOR message read by a listener and hands its votes to the current round,
+    or keeps them for a later round, or an instance that has not started yet, if they do not belong to this one
      */
-    private List<Integer> getPortsUsed() {
-        List<Integer> ports = new ArrayList<>();
-        for (Vote vote : votes) {
-            if (!ports.contains(vote.getParticipantPort())) {
-                ports.add(vote.getParticipantPort());
+    private synchronized void receiveVotes(ClientListener listener, MessageReader in, Message message) {
+        holdVotes = new ArrayList<>();
+        holdPort = 0;
+        if (message.isBinary()) {
+            int[] pairs = message.getValues();
+            for (int i = 0; i + 1 < pairs.length; i += 2) {
+                if (pairs[i + 1] < knownOptions) {
+                    receiveVote(pairs[i], pairs[i + 1]);
+                }
             }
+        } else {
+            in.parseVotes(voteParser, voteSink);
+        }
+
+        //The first VOTE a participant sends holds only its own vote, which identifies it
+        if (listener.participantId == 0 && holdPort != 0) {
+            listener.identify(holdPort);
         }
+        logger.votesReceived(listener.participantId, holdVotes);
 
-        return ports;
+        int instance = message.getInstance();
+        ConsensusInstance running = runningInstances.get(instance);
+        if (listener.crashed || (running == null && instance <= highestStarted)) {
+            return;
+        }
+        ArrayDeque<List<Vote>> pending = listener.pending.get(instance);
+        RoundBarrier<ClientListener> barrier = barriers.get(instance);
+        if (barrier != null && (pending == null || pending.isEmpty()) && barrier.arrive(listener)) {
+            running.receiveVotes(listener.participantId, holdVotes);
+        } else {
+            if (pending == null) {
+                pending = new ArrayDeque<>();
+                listener.pending.put(instance, pending);
+            }
+            pending.add(holdVotes);
+        }
     }
 
-    private String convertPortListToString(List<Integer> ports){
-        StringBuilder portString = new StringBuilder();
-        for (int port : ports) {
-            portString.append(" ").append(port);
+    /*
+    Called on the multicast thread for every packet another participant sends
+     */
+    private void packetReceived(int senderPort, int instance, int round, byte[] bytes, int offset, int length) {
+        ClientListener listener;
+        synchronized (this) {
+            listener = listenersById.get(senderPort);
+            //Packets from outside this vote are ignored, and so is anything sent before DETAILS has arrived
+            if (listener == null && voterIndex != null && voterIndex.containsKey(senderPort)) {
+                byte[] copy = Arrays.copyOfRange(bytes, offset, offset + length);
+                unidentifiedPackets.computeIfAbsent(senderPort, port -> new ArrayList<>())
+                        .add(() -> packetReceived(senderPort, instance, round, copy, 0, copy.length));
+            }
         }
-        return portString.toString();
+        if (listener == null) {
+            return;
+        }
+        MessageReader in = new MessageReader(new ByteArrayInputStream(bytes, offset, length));
+        Message message;
+        try {
+            message = in.read();
+        } catch (IOException e) {
+            return;
+        }
+        metrics.counter("multicast.received").increment();
+        listener.countReceived(length);
+        logger.messageReceived(senderPort, message.toLine(optionTable.asList()));
+        int missing = receiveRound(listener, in, message, instance, round);
+        if (missing > 0) {
+            requestRounds(senderPort, instance, missing);
+        }
+    }
+
+    /*
+    Hands over a round's message from another participant, multicast or sent again over its connection, if it is the next one expected
+    Earlier rounds are duplicates and are dropped, and so are later ones, as the rounds between them are asked for again
+    Returns the first missing round if this is the first sign of it, or 0
+     */
+    private synchronized int receiveRound(ClientListener listener, MessageReader in, Message message, int instance, int round) {
+        if (runningInstances.get(instance) == null && instance <= highestStarted) {
+            return 0;
+        }
+        int expected = listener.nextRound.getOrDefault(instance, 1);
+        if (round != expected) {
+            boolean firstSign = round > expected && !Integer.valueOf(expected).equals(listener.nacked.put(instance, expected));
+            return firstSign ? expected : 0;
+        }
+        listener.nextRound.put(instance, expected + 1);
+        if (message.getProtocol().equals(Message.DECIDED)) {
+            peerDecided(listener, instance);
+        } else {
+            receiveVotes(listener, in, message);
+        }
+        return 0;
     }
 
     /*
-    Prints the votes received for a given round
-    primarily used for debugging
+    Called by a listener once the other participant has sent JOIN with its port, which it does first with multicast dissemination
      */
-    private void printVotes() {
-        StringBuilder votesString = new StringBuilder();
-        for (Vote vote : votes) {
-            votesString.append(vote).append(" ");
+    private void peerIdentified(ClientListener listener, int port) {
+        List<Runnable> early;
+        synchronized (this) {
+            listener.identify(port);
+            listenersById.put(port, listener);
+            early = unidentifiedPackets.remove(port);
         }
-        System.out.println("Votes: " + votesString.toString());
-        votesString = new StringBuilder();
-        for (Vote vote : newVotes) {
-            votesString.append(vote).append(" ");
+        if (early != null) {
+            early.forEach(Runnable::run);
         }
-        System.out.println("New Votes: " + votesString.toString());
-        System.out.println();
+    }
+
+    /*
+    Called by a listener when the other participant has decided an instance early and will send no more votes for it
+     */
+    private synchronized void peerDecided(ClientListener listener, int instance) {
+        if (runningInstances.get(instance) == null && instance <= highestStarted) {
+            return;
+        }
+        listener.decided.add(instance);
+        RoundBarrier<ClientListener> barrier = barriers.get(instance);
+        if (barrier != null) {
+            barrier.suspect(listener);
+        }
+    }
+
+    /*
+    Called for every vote parsed from a VOTE message
+     */
+    private void receiveVote(int port, int optionId) {
+        holdVotes.add(new Vote(port, optionTable.get(optionId), optionId));
+        holdPort = port;
+    }
+
+    private String convertPortListToString(List<Integer> ports){
+        StringBuilder portString = new StringBuilder();
+        for (int port : ports) {
+            portString.append(" ").append(port);
+        }
+        return portString.toString();
     }
 
     /*
     Given the details from the server, opens connections with all potential other participants
      */
-    private void setOtherParticipants(String details) {
+    private void setOtherParticipants(String details) throws IOException {
         String[] ports = Coordinator.getData(details);
-        Socket socket;
-        PrintWriter out;
-            for (String port : ports) {
+        //Every connection is opened at once, so setting up the mesh takes about as long as the slowest one
+        ExecutorService connector = Executors.newFixedThreadPool(Math.max(1, Math.min(ports.length, MAX_CONNECTING)));
+        List<Future<Transport.Connection>> connections = new ArrayList<>();
+        for (String port : ports) {
+            connections.add(connector.submit(() -> transport.connect(Integer.parseInt(port), timeout)));
+        }
+        connector.shutdown();
+
+        Transport.Connection socket;
+        MessageWriter out;
+            for (int i = 0; i < ports.length; i++) {
+                String port = ports[i];
                 try {
 
-                socket = new Socket(InetAddress.getLocalHost(), Integer.parseInt(port));
+                socket = connections.get(i).get();
 
                 socket.setSoTimeout(timeout);
+                socket.setTcpNoDelay(multiInstance);
 
                 logger.connectionEstablished(Integer.parseInt(port));
                 otherClients.add(socket);
                 otherClientsPorts.add(Integer.parseInt(port));
-                out = new PrintWriter(socket.getOutputStream());
+                Metrics.PeerCounters counters = metrics.peer(Integer.parseInt(port));
+                otherClientsCounters.add(counters);
+                out = new MessageWriter(socket.getOutputStream());
                 outputs.put(socket, out);
+                if (multicast != null) {
+                    //Multicast packets name their sender, so the other participant has to know whose connection this is
+                    out.println("JOIN " + pport);
+                    out.flush();
+                    counters.sent(out.getBytesWritten());
+                    logger.messageSent(socket.getPort(), "JOIN " + pport);
+                }
 
-                } catch (Exception e) {
+                } catch (InterruptedException | ExecutionException | IOException e) {
                     System.out.println("Error connecting to participant " + port);
                     logger.participantCrashed(Integer.parseInt(port));
                 }
             }
     }
 
+    /*
+    Randomly chooses an option for every question, joined into one batch vote if there is more than one question
+     */
+    private String chooseVote() {
+        StringBuilder choices = new StringBuilder();
+        for (String[] options : questions) {
+            if (choices.length() > 0) {
+                choices.append(ConsensusInstance.QUESTION_SEPARATOR);
+            }
+            choices.append(getRandomOption(options));
+        }
+        return choices.toString();
+    }
+
     /*
     Randomly chooses a vote
      */
@@ -364,45 +1091,102 @@ public class Participant {
 
 
     /*
-    A client listener thread will be ran for each open connection
-    They will run simultaneously and the code will not proceed until all ClientListener threads halt
+    A client listener runs for the whole vote on every connection accepted from another participant
+    It reads each VOTE as it arrives and hands the votes over to the round and instance they belong to
      */
-    public class ClientListener extends Thread {
+    public class ClientListener implements Runnable {
+
+        final Transport.Connection socket;
+        final MessageReader in;
+
+        //The ID of the participant on the other end, known once its first VOTE has arrived
+        int participantId;
+
+        //The counters of the messages read from the other participant, known once it is,
+        //and how many messages and bytes were read before that, which are counted against it then
+        Metrics.PeerCounters counters;
+        long unidentifiedMessages;
+        long unidentifiedBytes;
+
+        //Votes that arrived before the round they belong to began, by instance
+        final Map<Integer, ArrayDeque<List<Vote>>> pending = new HashMap<>();
+
+        //The instances the other participant has decided early, which it will send no more votes for
+        final Set<Integer> decided = new HashSet<>();
 
-        BufferedReader in;
+        //With multicast dissemination, the next round expected from the other participant and the last round asked for again, by instance
+        final Map<Integer, Integer> nextRound = new HashMap<>();
+        final Map<Integer, Integer> nacked = new HashMap<>();
 
-        ClientListener(BufferedReader in) {
+        boolean crashed;
+
+        ClientListener(Transport.Connection socket) throws IOException {
+            this(socket, new MessageReader(socket.getInputStream()));
+        }
+
+        ClientListener(Transport.Connection socket, MessageReader in) {
+            this.socket = socket;
             this.in = in;
         }
 
         /*
-        Attempts to read a line sent from a specified client
+        Records which participant is on the other end, and looks up its counters once
+         */
+        void identify(int port) {
+            participantId = port;
+            counters = metrics.peer(port);
+            counters.received(unidentifiedMessages, unidentifiedBytes);
+            unidentifiedMessages = 0;
+            unidentifiedBytes = 0;
+        }
+
+        void countReceived(long bytes) {
+            if (counters == null) {
+                unidentifiedMessages++;
+                unidentifiedBytes += bytes;
+            } else {
+                counters.received(bytes);
+            }
+        }
+
+        /*
+        Reads every message sent by the other participant until its connection is closed
          */
         public void run() {
-            String line;
+            Message message;
             try {
-                line = in.readLine();
-                logger.messageReceived(inputsSockets.get(in).getPort(),line);
-                if(Coordinator.getProtocol(line).equals("VOTE")) {
-                    addVotes(Coordinator.getData(line), in);
+                while (true) {
+                    long read = in.getBytesRead();
+                    message = in.read();
+                    //Heartbeats are neither logged nor counted as messages
+                    if (message.getProtocol().equals(Message.HEARTBEAT)) {
+                        heartbeatReceived(this, message);
+                        continue;
+                    }
+                    logger.messageReceived(socket.getPort(), message.toLine(optionTable.asList()));
+                    if (message.getProtocol().equals(Message.VOTE) || message.getProtocol().equals(Message.VOTE_FOR)) {
+                        receiveVotes(this, in, message);
+                    } else if (message.getProtocol().equals(Message.DECIDED)) {
+                        peerDecided(this, message.getInstance());
+                    } else if (message.getProtocol().equals(Message.JOIN)) {
+                        peerIdentified(this, Integer.parseInt(Coordinator.getData(message.toLine(null))[0]));
+                    } else if (message.getProtocol().equals(Message.NACK)) {
+                        String[] data = Coordinator.getData(message.toLine(null));
+                        resendRounds(participantId, Integer.parseInt(data[0]), Integer.parseInt(data[1]));
+                    } else if (message.getProtocol().equals(Message.ROUND)) {
+                        String[] data = Coordinator.getData(message.toLine(null));
+                        Message resent = in.read();
+                        logger.messageReceived(socket.getPort(), resent.toLine(optionTable.asList()));
+                        int missing = receiveRound(this, in, resent, Integer.parseInt(data[0]), Integer.parseInt(data[1]));
+                        if (missing > 0) {
+                            requestRounds(participantId, Integer.parseInt(data[0]), missing);
+                        }
+                    }
+                    //The other participant is only known once its first VOTE has been read
+                    countReceived(in.getBytesRead() - read);
                 }
-            } catch (SocketTimeoutException e) {
-                System.out.println("Timeout with participant");
-                inputs.remove(in);
-                attemptToIdentifyCrashID();
             } catch (IOException e) {
-                System.out.println("Connection error with participant");
-                inputs.remove(in);
-                attemptToIdentifyCrashID();
-            }
-        }
-
-        private void attemptToIdentifyCrashID(){
-            try{
-                logger.participantCrashed(portToID.get(inputsSockets.get(in).getPort()));
-            }
-            catch (NullPointerException e){
-                System.out.println("Unable to identify crashed participants ID");
+                connectionLost(this);
             }
         }
     }
@@ -9,6 +9,9 @@ public class ParticipantLogger {
 
     private final PrintStream ps;
     private final UDPLoggerClient udpLoggerClient;
+    private final LogShipper logShipper;
+    //Written instead of the text log and the logger server with -Dlogger.format=binary, see EventLog
+    private final EventLog events;
     private final int thisParticipant;
 
     /**
@@ -26,6 +29,19 @@ public class ParticipantLogger {
             throw new RuntimeException("ParticipantLogger already initialised");
     }
 
+    /**
+     * Creates a Logger for one of several Participants running in the same process, which cannot share the singleton
+     *
+     * @param loggerServerPort the UDP port where the Logger process is listening on
+     * @param processId the ID of the Participant, i.e. the TCP port where the Participant is listening on
+     * @param timeout the timeout in milliseconds for the Participant
+     * @return a Logger of its own for the Participant
+     * @throws IOException
+     */
+    public static ParticipantLogger createLogger(int loggerServerPort, int processId, int timeout) throws IOException {
+        return new ParticipantLogger(loggerServerPort, processId, timeout);
+    }
+
     /**
      * @return the singleton instance of the Logger for this Participant
      */
@@ -37,13 +53,25 @@ public class ParticipantLogger {
 
     private ParticipantLogger(int loggerServerPort, int processId, int timeout) throws IOException {
         thisParticipant = processId;
-        udpLoggerClient = new UDPLoggerClient(loggerServerPort, processId, timeout);
+        if (EventLog.BINARY) {
+            events = new EventLog("participant_" + thisParticipant + "_" + System.currentTimeMillis() + ".events", EventLog.PARTICIPANT, processId);
+            udpLoggerClient = null;
+            ps = null;
+            logShipper = null;
+            return;
+        }
+        events = null;
+        Metrics metrics = Metrics.forProcess(Metrics.PARTICIPANT, processId);
+        udpLoggerClient = new UDPLoggerClient(loggerServerPort, processId, timeout, metrics);
         ps = new PrintStream("participant_" + thisParticipant + "_" + System.currentTimeMillis() + ".log");
+        logShipper = LogShipper.ASYNC ? new LogShipper(udpLoggerClient, ps, "[P" + thisParticipant + "]", metrics) : null;
     }
 
     protected void logMessage(String message) {
         ps.println(message);
-        if (udpLoggerClient != null)
+        if (logShipper != null)
+            logShipper.submit(message);
+        else if (udpLoggerClient != null)
             try {
                 udpLoggerClient.logToServer(message);
             } catch (IOException e) {
@@ -58,7 +86,10 @@ public class ParticipantLogger {
      * @param coordinatorId the ID of the Coordinator, i.e. the port where the Coordinator is listening on
      */
     public void joinSent(int coordinatorId) {
-        logMessage("[P" + thisParticipant + "] JOIN sent to Coordinator on port " + coordinatorId);
+        if (events != null)
+            events.write(EventLog.JOIN_SENT, coordinatorId);
+        else
+            logMessage("[P" + thisParticipant + "] JOIN sent to Coordinator on port " + coordinatorId);
     }
 
     /**
@@ -67,7 +98,10 @@ public class ParticipantLogger {
      * @param participantIds the list of Participant IDs
      */
     public void detailsReceived(List<Integer> participantIds) {
-        logMessage("[P" + thisParticipant + "] received participant ports: " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.write(EventLog.DETAILS_RECEIVED, thisParticipant, participantIds);
+        else
+            logMessage("[P" + thisParticipant + "] received participant ports: " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -76,7 +110,10 @@ public class ParticipantLogger {
      * @param votingOptions the list of voting options
      */
     public void voteOptionsReceived(List<String> votingOptions) {
-        logMessage("[P" + thisParticipant + "] received vote options: " + votingOptions.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.writeStrings(EventLog.VOTE_OPTIONS_RECEIVED, thisParticipant, votingOptions);
+        else
+            logMessage("[P" + thisParticipant + "] received vote options: " + votingOptions.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -85,7 +122,10 @@ public class ParticipantLogger {
      * @param round the number of the new round, e.g. 1 for the first round, 2 for the second and so on
      */
     public void beginRound(int round) {
-        logMessage("[P" + thisParticipant + "] begin round " + round);
+        if (events != null)
+            events.write(EventLog.BEGIN_ROUND, round);
+        else
+            logMessage("[P" + thisParticipant + "] begin round " + round);
     }
 
     /**
@@ -94,7 +134,52 @@ public class ParticipantLogger {
      * @param round the number of the round, e.g. 1 for the first round, 2 for the second and so on
      */
     public void endRound(int round) {
-        logMessage("[P" + thisParticipant + "] end round " + round);
+        if (events != null)
+            events.write(EventLog.END_ROUND, round);
+        else
+            logMessage("[P" + thisParticipant + "] end round " + round);
+    }
+
+    /**
+     * To be invoked after endRound, with how long the round took
+     *
+     * @param round the number of the round
+     * @param millis the wall clock time from the beginning to the end of the round, in milliseconds
+     * @param allReported true if every live Participant reported before the timeout, false if the round waited out the timeout
+     */
+    public void roundTime(int round, long millis, boolean allReported) {
+        if (events != null)
+            events.write(EventLog.ROUND_TIME, round, millis, allReported ? 1 : 0);
+        else
+            logMessage("[P" + thisParticipant + "] round " + round + " took " + millis + " ms (" + (allReported ? "all participants reported" : "timed out") + ")");
+    }
+
+    /**
+     * To be invoked after the last round of a vote, with how many rounds were run
+     *
+     * @param rounds the number of rounds run
+     * @param maxRounds the number of rounds the vote would have run without stopping early
+     * @param decidedEarly true if the vote stopped after a round with no new crashes and no new votes
+     */
+    public void roundsRun(int rounds, int maxRounds, boolean decidedEarly) {
+        if (events != null)
+            events.write(EventLog.ROUNDS_RUN, rounds, maxRounds, decidedEarly ? 1 : 0);
+        else
+            logMessage("[P" + thisParticipant + "] ran " + rounds + " of " + maxRounds + " rounds" + (decidedEarly ? " (decided early)" : ""));
+    }
+
+    /**
+     * To be invoked once this Participant has sent its VOTE messages for a round
+     *
+     * @param round the number of the round
+     * @param bytesSent the bytes of the VOTE messages sent to every other Participant, each holding only votes it was not known to hold
+     * @param floodingBytes the bytes it would have taken to send every new vote to every other Participant
+     */
+    public void roundBytes(int round, long bytesSent, long floodingBytes) {
+        if (events != null)
+            events.write(EventLog.ROUND_BYTES, round, bytesSent, floodingBytes);
+        else
+            logMessage("[P" + thisParticipant + "] round " + round + " sent " + bytesSent + " bytes (" + floodingBytes + " bytes flooding)");
     }
 
     /**
@@ -104,7 +189,10 @@ public class ParticipantLogger {
      * @param votes the list of votes sent
      */
     public void votesSent(int destinationParticipantId, List<Vote> votes) {
-        logMessage("[P" + thisParticipant + "] votes sent to " + destinationParticipantId + ": " + votes.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.writeVotes(EventLog.VOTES_SENT, destinationParticipantId, votes);
+        else
+            logMessage("[P" + thisParticipant + "] votes sent to " + destinationParticipantId + ": " + votes.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -114,7 +202,10 @@ public class ParticipantLogger {
      * @param votes the list of votes received
      */
     public void votesReceived(int senderParticipantId, List<Vote> votes) {
-        logMessage("[P" + thisParticipant + "] votes received from " + senderParticipantId + ": " + votes.stream().map(Object::toString).collect(Collectors.joining(", ")));
+        if (events != null)
+            events.writeVotes(EventLog.VOTES_RECEIVED, senderParticipantId, votes);
+        else
+            logMessage("[P" + thisParticipant + "] votes received from " + senderParticipantId + ": " + votes.stream().map(Object::toString).collect(Collectors.joining(", ")));
     }
 
     /**
@@ -124,7 +215,10 @@ public class ParticipantLogger {
      * @param participantIds the list of IDs of Participants that were taken into account in settling the vote
      */
     public void outcomeDecided(String vote, List<Integer> participantIds) {
-        logMessage("[P" + thisParticipant + "] outcome vote decided: " + vote + "(based on votes of Participants " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")");
+        if (events != null)
+            events.write(EventLog.OUTCOME_DECIDED, vote, participantIds);
+        else
+            logMessage("[P" + thisParticipant + "] outcome vote decided: " + vote + "(based on votes of Participants " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")");
     }
 
     /**
@@ -134,7 +228,10 @@ public class ParticipantLogger {
      * @param participantIds the list of IDs of Participants that were taken into account in settling the vote
      */
     public void outcomeNotified(String vote, List<Integer> participantIds) {
-        logMessage("[P" + thisParticipant + "] outcome vote sent to Coordinator: " + vote + "(based on votes of Participants " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")");
+        if (events != null)
+            events.write(EventLog.OUTCOME_NOTIFIED, vote, participantIds);
+        else
+            logMessage("[P" + thisParticipant + "] outcome vote sent to Coordinator: " + vote + "(based on votes of Participants " + participantIds.stream().map(Object::toString).collect(Collectors.joining(", ")) + ")");
     }
 
     /**
@@ -144,14 +241,20 @@ public class ParticipantLogger {
      * @param crashedParticipantId the ID of the crashed Participant, i.e. the port where the crashed Participant was listening on
      */
     public void participantCrashed(int crashedParticipantId) {
-        logMessage("[P" + thisParticipant + "] participant crashed: " + crashedParticipantId);
+        if (events != null)
+            events.write(EventLog.PARTICIPANT_CRASHED, crashedParticipantId);
+        else
+            logMessage("[P" + thisParticipant + "] participant crashed: " + crashedParticipantId);
     }
 
     /**
      * To be invoked when this Participant starts listening for incoming TCP connections
      */
     public void startedListening() {
-        logMessage("[P" + thisParticipant + "] started listening on port " + thisParticipant);
+        if (events != null)
+            events.write(EventLog.STARTED_LISTENING, thisParticipant);
+        else
+            logMessage("[P" + thisParticipant + "] started listening on port " + thisParticipant);
     }
 
     /**
@@ -160,7 +263,10 @@ public class ParticipantLogger {
      * @param otherPort the remote port number to which this socket is connected; note that this is different from the ID of the other Participant
      */
     public void connectionAccepted(int otherPort) {
-        logMessage("[P" + thisParticipant + "] accepted connection from port " + otherPort);
+        if (events != null)
+            events.write(EventLog.CONNECTION_ACCEPTED, otherPort);
+        else
+            logMessage("[P" + thisParticipant + "] accepted connection from port " + otherPort);
     }
 
     /**
@@ -169,7 +275,10 @@ public class ParticipantLogger {
      * @param otherPort the TCP port where the other process is listening on
      */
     public void connectionEstablished(int otherPort) {
-        logMessage("[P" + thisParticipant + "] connection established to port " + otherPort);
+        if (events != null)
+            events.write(EventLog.CONNECTION_ESTABLISHED, otherPort);
+        else
+            logMessage("[P" + thisParticipant + "] connection established to port " + otherPort);
     }
 
     /**
@@ -179,7 +288,10 @@ public class ParticipantLogger {
      * @param message the message sent
      */
     public void messageSent(int destinationPort, String message) {
-        logMessage("[P" + thisParticipant + "] message sent to " + destinationPort + ": \"" + message + "\"");
+        if (events != null)
+            events.write(EventLog.MESSAGE_SENT, destinationPort, message);
+        else
+            logMessage("[P" + thisParticipant + "] message sent to " + destinationPort + ": \"" + message + "\"");
     }
 
     /**
@@ -189,6 +301,9 @@ public class ParticipantLogger {
      * @param message the received message
      */
     public void messageReceived(int senderPort, String message) {
-        logMessage("[P" + thisParticipant + "] message received from " + senderPort + ": \"" + message + "\"");
+        if (events != null)
+            events.write(EventLog.MESSAGE_RECEIVED, senderPort, message);
+        else
+            logMessage("[P" + thisParticipant + "] message received from " + senderPort + ": \"" + message + "\"");
     }
 }
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Tracks which peers still have to deliver their votes in a round
+The round can end the moment every peer has either reported or been suspected of crashing, instead of always waiting out the timeout
+ */
+class RoundBarrier<K> {
+
+    private final Set<K> outstanding;
+    private final Set<K> suspected = new HashSet<>();
+    private boolean closed;
+
+    RoundBarrier(Collection<K> peers) {
+        outstanding = new LinkedHashSet<>(peers);
+    }
+
+    /*
+    Records that a peer has delivered its votes, returning false if the round had already stopped waiting for it
+     */
+    synchronized boolean arrive(K peer) {
+        return remove(peer);
+    }
+
+    /*
+    Records that a peer is suspected of crashing, returning false if the round had already stopped waiting for it
+     */
+    synchronized boolean suspect(K peer) {
+        if (!remove(peer)) {
+            return false;
+        }
+        suspected.add(peer);
+        return true;
+    }
+
+    /*
+    Whether the round stopped waiting for a peer because it was suspected, rather than because it reported
+     */
+    synchronized boolean isSuspected(K peer) {
+        return suspected.contains(peer);
+    }
+
+    /*
+    Waits until no peer is outstanding or the timeout passes, returning true if every peer was accounted for
+     */
+    synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long wait;
+        while (!outstanding.isEmpty() && (wait = deadline - System.currentTimeMillis()) > 0) {
+            wait(wait);
+        }
+        return outstanding.isEmpty();
+    }
+
+    /*
+    The peers that have not reported yet
+     */
+    synchronized List<K> getOutstanding() {
+        return new ArrayList<>(outstanding);
+    }
+
+    /*
+    Stops waiting, returning the peers that never reported
+     */
+    synchronized List<K> close() {
+        closed = true;
+        List<K> missing = new ArrayList<>(outstanding);
+        outstanding.clear();
+        return missing;
+    }
+
+    private boolean remove(K peer) {
+        if (closed || !outstanding.remove(peer)) {
+            return false;
+        }
+        if (outstanding.isEmpty()) {
+            notifyAll();
+        }
+        return true;
+    }
+}
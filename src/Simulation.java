@@ -0,0 +1,569 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+A deterministic simulation of a whole vote, one coordinator and any number of participants, inside a single JVM
+Time is virtual: every message arrives a set latency after it is sent and a timeout moves the clock forward instead of
+sleeping, so thousands of participants take seconds and the same arguments always play out the same way
+
+The participants follow the rules of Participant and ConsensusInstance: each peer is only sent the votes it is not known
+to hold, a vote runs a round per other participant or consensus.faults + 1 rounds, consensus.earlyDeciding applies, and a
+round stops waiting for a peer once its connection closes, it sends DECIDED or the timeout passes
+The coordinator gives every participant timeout milliseconds from DETAILS to send its OUTCOME, as Coordinator does
+Every participant hands the votes it receives to a ConsensusInstance, which drops duplicates, tallies and decides them as it does for Participant
+The votes in flight are bitmaps of the participants that cast them though, as the votes exchanged in a round grow with the square of N
+
+Run with: java [-Dsimulation.*=...] Simulation <number of participants> <timeout> [voting options]
+ */
+class Simulation {
+
+    //How long every message takes to arrive, in milliseconds
+    private static final long LATENCY = Long.getLong("simulation.latency", 1);
+
+    //Up to how many milliseconds are randomly added to the latency of every message
+    private static final long JITTER = Long.getLong("simulation.jitter", 0);
+
+    //Seeds the votes and the jitter, so that a run can be repeated exactly
+    private static final long SEED = Long.getLong("simulation.seed", 0);
+
+    //The crashes to inject, e.g. "3@2:5,7@1h", see Crash
+    private static final String CRASHES = System.getProperty("simulation.crashes", "");
+
+    private static final int FIRST_PORT = 12001;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final int parts;
+    private final long timeout;
+    private final String[] options;
+    private final Random random;
+    private final Map<Integer, Crash> crashes;
+
+    //The events still to happen, in order of time and then of scheduling
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long scheduled;
+
+    private final Node[] nodes;
+
+    //The vote every participant casts, and for every option the participants that vote for it
+    private final Vote[] castVotes;
+    private final BitSet[] optionVoters;
+
+    //What every participant's ConsensusInstance is given on VOTE_OPTIONS and DETAILS
+    private final OptionDictionary optionTable = new OptionDictionary();
+    private final int knownOptions;
+    private final Map<Integer, Integer> voterIndex = new HashMap<>();
+
+    //The length of every option, if they are all the same length, or -1
+    private final int optionLength;
+
+    //When the last message sent over each connection arrives, as connections deliver in order, only kept with jitter
+    private final long[] lastArrival;
+
+    //The coordinator's view of the vote
+    private int joins;
+    private long detailsSent;
+    private final Map<Integer, String> outcomes = new LinkedHashMap<>();
+    private final BitSet coordinatorDone = new BitSet();
+    private int coordinatorTimeouts;
+    private int coordinatorCrashes;
+    private long finished;
+
+    //Totals over the whole run
+    private long coordinatorMessages;
+    private long voteMessages;
+    private long voteBytes;
+    private long floodingBytes;
+    private long decidedMessages;
+    private long outcomeMessages;
+    private long participantTimeouts;
+    private long eventsRun;
+
+    Simulation(int parts, long timeout, String[] options) {
+        this.parts = parts;
+        this.timeout = timeout;
+        this.options = options;
+        this.random = new Random(SEED);
+        this.crashes = Crash.parse(CRASHES, parts);
+        for (String option : options) {
+            optionTable.getId(option);
+        }
+        knownOptions = optionTable.size();
+        for (int i = 0; i < parts; i++) {
+            voterIndex.put(FIRST_PORT + i, i);
+        }
+        nodes = new Node[parts];
+        castVotes = new Vote[parts];
+        optionVoters = new BitSet[options.length];
+        for (int option = 0; option < options.length; option++) {
+            optionVoters[option] = new BitSet(parts);
+        }
+        for (int i = 0; i < parts; i++) {
+            nodes[i] = new Node(i);
+            int choice = random.nextInt(options.length);
+            castVotes[i] = new Vote(FIRST_PORT + i, options[choice], optionTable.getId(options[choice]));
+            optionVoters[choice].set(i);
+        }
+        int length = options[0].length();
+        for (String option : options) {
+            length = option.length() == length ? length : -1;
+        }
+        optionLength = length;
+        lastArrival = JITTER > 0 ? new long[parts * parts] : null;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java [-Dsimulation.*=...] Simulation <number of participants> <timeout> [voting options]");
+            return;
+        }
+        int parts = Integer.parseInt(args[0]);
+        if (parts < 2 || FIRST_PORT + parts > 65536) {
+            throw new IllegalArgumentException("Between 2 and " + (65536 - FIRST_PORT) + " participants can be simulated");
+        }
+        String[] options = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[]{"A", "B", "C", "D"};
+        new Simulation(parts, Long.parseLong(args[1]), options).run();
+    }
+
+    /*
+    Runs the vote until nothing is left to happen and prints what it took
+     */
+    void run() {
+        long start = System.nanoTime();
+        for (Node node : nodes) {
+            node.join();
+        }
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+            eventsRun++;
+        }
+        report(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void schedule(long delay, Runnable action) {
+        events.add(new Event(now + delay, scheduled++, action));
+    }
+
+    /*
+    Sends a message over the connection from one participant to another, or to the coordinator if to is -1
+     */
+    private void send(int from, int to, Runnable delivery) {
+        long arrival = now + LATENCY + (JITTER > 0 ? (long) (random.nextDouble() * JITTER) : 0);
+        if (lastArrival != null && to >= 0) {
+            arrival = Math.max(arrival, lastArrival[from * parts + to]);
+            lastArrival[from * parts + to] = arrival;
+        }
+        schedule(arrival - now, delivery);
+    }
+
+    /*
+    The coordinator has received a JOIN, and once every participant has joined it sends DETAILS and VOTE_OPTIONS
+     */
+    private void joinReceived() {
+        if (++joins < parts) {
+            return;
+        }
+        detailsSent = now;
+        for (Node node : nodes) {
+            coordinatorMessages += 2;
+            send(-1, -1, node::detailsReceived);
+        }
+        schedule(timeout, this::outcomeTimeout);
+    }
+
+    private void outcomeReceived(Node node, String outcome) {
+        if (coordinatorDone.get(node.index)) {
+            return;
+        }
+        outcomes.put(node.port, outcome);
+        coordinatorDone(node);
+    }
+
+    private void coordinatorNoticedCrash(Node node) {
+        if (!coordinatorDone.get(node.index)) {
+            coordinatorCrashes++;
+            coordinatorDone(node);
+        }
+    }
+
+    private void outcomeTimeout() {
+        for (int i = coordinatorDone.nextClearBit(0); i < parts; i = coordinatorDone.nextClearBit(i + 1)) {
+            coordinatorTimeouts++;
+            coordinatorDone(nodes[i]);
+        }
+    }
+
+    private void coordinatorDone(Node node) {
+        coordinatorDone.set(node.index);
+        if (coordinatorDone.cardinality() == parts) {
+            finished = now;
+        }
+    }
+
+    /*
+    The number of bytes of a text VOTE line holding the votes of the given participants
+    Every port has five digits, so a vote " <12001, A>" is ten bytes plus the length of its option
+     */
+    private long voteLineBytes(BitSet voters) {
+        long bytes = Message.VOTE.length() + LINE_SEPARATOR.length();
+        if (optionLength >= 0) {
+            return bytes + (long) voters.cardinality() * (10 + optionLength);
+        }
+        for (int option = 0; option < options.length; option++) {
+            BitSet votes = (BitSet) voters.clone();
+            votes.and(optionVoters[option]);
+            bytes += (long) votes.cardinality() * (10 + options[option].length());
+        }
+        return bytes;
+    }
+
+    private void report(long realMillis) {
+        int crashed = 0;
+        int decidedEarly = 0;
+        int minRounds = Integer.MAX_VALUE;
+        int maxRounds = 0;
+        long lastDecision = 0;
+        for (Node node : nodes) {
+            if (node.crashed) {
+                crashed++;
+                continue;
+            }
+            minRounds = Math.min(minRounds, node.round);
+            maxRounds = Math.max(maxRounds, node.round);
+            lastDecision = Math.max(lastDecision, node.decidedAt);
+            if (node.decidedEarly) {
+                decidedEarly++;
+            }
+        }
+        Map<String, Integer> agreed = new HashMap<>();
+        for (String outcome : outcomes.values()) {
+            agreed.merge(String.valueOf(outcome), 1, Integer::sum);
+        }
+
+        System.out.println("Participants: " + parts + ", crashed: " + crashed + ", of " + nodes[0].maxRounds + " rounds at most");
+        System.out.println("Rounds run: " + (crashed == parts ? 0 : minRounds) + " to " + maxRounds + ", decided early: " + decidedEarly);
+        System.out.println("Messages: " + (parts + coordinatorMessages + outcomeMessages) + " with the coordinator, "
+                + voteMessages + " VOTE, " + decidedMessages + " DECIDED");
+        System.out.println("VOTE bytes: " + voteBytes + " (" + floodingBytes + " if every vote were flooded to every peer)");
+        System.out.println("Timeouts: " + participantTimeouts + " at participants, " + coordinatorTimeouts
+                + " at the coordinator, which saw " + coordinatorCrashes + " connections close");
+        System.out.println("Simulated latency: " + (lastDecision - detailsSent) + " ms from DETAILS to the last decision, "
+                + finished + " ms until the coordinator had every OUTCOME or had given up");
+        System.out.println("Outcomes received: " + agreed + (agreed.size() > 1 ? " DISAGREEMENT" : ""));
+        System.out.println("Simulated " + eventsRun + " events in " + realMillis + " ms");
+    }
+
+    /*
+    One participant, running one vote
+     */
+    private class Node {
+
+        final int index;
+        final int port;
+        final int maxRounds;
+
+        //Holds, tallies and decides the votes of this participant, exactly as for Participant
+        final ConsensusInstance instance;
+
+        //The participants whose votes were received this round, so each is handed to the instance once
+        BitSet newVotes = new BitSet();
+
+        //For every other participant, the votes it is known to hold
+        final BitSet[] peerKnowledge;
+
+        //The votes received from every other participant before this participant was ready for them
+        final List<ArrayDeque<BitSet>> pending;
+
+        //The peers that have crashed or sent DECIDED, which are no longer waited for
+        final BitSet peerCrashed = new BitSet();
+        final BitSet peerDecided = new BitSet();
+        int crashCount;
+
+        int round;
+        boolean listening;
+        BitSet outstanding;
+        int crashesBefore;
+
+        boolean crashed;
+        boolean finished;
+        boolean decidedEarly;
+        long decidedAt;
+
+        Node(int index) {
+            this.index = index;
+            this.port = FIRST_PORT + index;
+            int rounds = parts - 1;
+            if (ConsensusInstance.FAULT_BOUND >= 0) {
+                rounds = Math.min(ConsensusInstance.FAULT_BOUND + 1, rounds);
+            }
+            maxRounds = rounds;
+            peerKnowledge = new BitSet[parts];
+            pending = new ArrayList<>(Collections.nCopies(parts, null));
+            instance = new ConsensusInstance(0, optionTable, knownOptions, Collections.singletonList(options), voterIndex);
+        }
+
+        void join() {
+            send(index, -1, Simulation.this::joinReceived);
+        }
+
+        /*
+        DETAILS and VOTE_OPTIONS have arrived, so the participant connects to every other one and starts voting
+         */
+        void detailsReceived() {
+            instance.addNewVote(castVotes[index]);
+            schedule(LATENCY, this::beginRound);
+        }
+
+        void beginRound() {
+            round++;
+            instance.removeDuplicateNewVotes();
+            BitSet fresh = new BitSet(parts);
+            for (Vote vote : instance.getNewVotes()) {
+                fresh.set(vote.getParticipantPort() - FIRST_PORT);
+            }
+
+            Crash crash = crashes.get(index);
+            int sent = 0;
+            for (int peer = 0; peer < parts; peer++) {
+                if (peer == index) {
+                    continue;
+                }
+                if (crash != null && crash.round == round && sent == crash.afterSending) {
+                    crash(crash.hang);
+                    return;
+                }
+                BitSet delta = (BitSet) fresh.clone();
+                delta.andNot(knowledgeOf(peer));
+                knowledgeOf(peer).or(delta);
+                voteMessages++;
+                voteBytes += voteLineBytes(delta);
+                Node to = nodes[peer];
+                send(index, peer, () -> to.votesReceived(this, delta));
+                sent++;
+            }
+            floodingBytes += voteLineBytes(fresh) * (parts - 1);
+            if (crash != null && crash.round == round) {
+                crash(crash.hang);
+                return;
+            }
+            instance.clearNewVotes();
+            newVotes = new BitSet();
+
+            //listenToVotes
+            listening = true;
+            crashesBefore = crashCount;
+            outstanding = new BitSet(parts);
+            outstanding.set(0, parts);
+            outstanding.clear(index);
+            outstanding.andNot(peerCrashed);
+            outstanding.andNot(peerDecided);
+            for (int peer = 0; peer < parts; peer++) {
+                if (pending.get(peer) != null && !pending.get(peer).isEmpty() && outstanding.get(peer)) {
+                    receive(nodes[peer], pending.get(peer).poll());
+                    outstanding.clear(peer);
+                }
+            }
+            if (outstanding.isEmpty()) {
+                schedule(0, () -> endRound(true));
+            } else {
+                int thisRound = round;
+                schedule(timeout, () -> roundTimeout(thisRound));
+            }
+        }
+
+        private BitSet knowledgeOf(int peer) {
+            if (peerKnowledge[peer] == null) {
+                peerKnowledge[peer] = new BitSet();
+            }
+            return peerKnowledge[peer];
+        }
+
+        private void receive(Node from, BitSet received) {
+            BitSet unseen = (BitSet) received.clone();
+            unseen.andNot(newVotes);
+            newVotes.or(unseen);
+            for (int voter = unseen.nextSetBit(0); voter >= 0; voter = unseen.nextSetBit(voter + 1)) {
+                instance.addNewVote(castVotes[voter]);
+            }
+            knowledgeOf(from.index).or(received);
+        }
+
+        void votesReceived(Node from, BitSet received) {
+            if (crashed || finished || peerCrashed.get(from.index)) {
+                return;
+            }
+            if (listening && outstanding.get(from.index) && (pending.get(from.index) == null || pending.get(from.index).isEmpty())) {
+                receive(from, received);
+                stopWaitingFor(from);
+            } else {
+                if (pending.get(from.index) == null) {
+                    pending.set(from.index, new ArrayDeque<>());
+                }
+                pending.get(from.index).add(received);
+            }
+        }
+
+        void decidedReceived(Node from) {
+            if (crashed || finished) {
+                return;
+            }
+            peerDecided.set(from.index);
+            if (listening && outstanding.get(from.index)) {
+                stopWaitingFor(from);
+            }
+        }
+
+        /*
+        The connection from a crashed participant has closed
+         */
+        void connectionLost(Node from) {
+            if (crashed || finished) {
+                return;
+            }
+            participantCrashed(from.index);
+            if (listening && outstanding.get(from.index)) {
+                stopWaitingFor(from);
+            }
+        }
+
+        private void participantCrashed(int peer) {
+            if (!peerCrashed.get(peer)) {
+                peerCrashed.set(peer);
+                crashCount++;
+            }
+        }
+
+        private void stopWaitingFor(Node peer) {
+            outstanding.clear(peer.index);
+            if (outstanding.isEmpty()) {
+                endRound(true);
+            }
+        }
+
+        void roundTimeout(int timedOutRound) {
+            if (crashed || !listening || round != timedOutRound) {
+                return;
+            }
+            for (int peer = outstanding.nextSetBit(0); peer >= 0; peer = outstanding.nextSetBit(peer + 1)) {
+                participantTimeouts++;
+                participantCrashed(peer);
+            }
+            outstanding.clear();
+            endRound(false);
+        }
+
+        void endRound(boolean allReported) {
+            if (!listening) {
+                return;
+            }
+            listening = false;
+            decidedEarly = ConsensusInstance.EARLY_DECIDING && round < maxRounds && allReported
+                    && crashCount == crashesBefore && !instance.hasUnseenNewVotes();
+            if (decidedEarly || round == maxRounds) {
+                decide();
+            } else {
+                schedule(0, this::beginRound);
+            }
+        }
+
+        /*
+        Decides on every vote held, including those received in the last round, as Participant does
+         */
+        private void decide() {
+            finished = true;
+            decidedAt = now;
+            instance.removeDuplicateNewVotes();
+            if (decidedEarly) {
+                for (Node peer : nodes) {
+                    if (peer != this) {
+                        decidedMessages++;
+                        send(index, peer.index, () -> peer.decidedReceived(this));
+                    }
+                }
+            }
+            String outcome = instance.decideMajorityVote();
+            outcomeMessages++;
+            send(index, -1, () -> outcomeReceived(this, outcome));
+        }
+
+        void crash(boolean hang) {
+            crashed = true;
+            listening = false;
+            if (hang) {
+                return;
+            }
+            for (Node peer : nodes) {
+                if (peer != this) {
+                    send(index, peer.index, () -> peer.connectionLost(this));
+                }
+            }
+            send(index, -1, () -> coordinatorNoticedCrash(this));
+        }
+    }
+
+    /*
+    A crash to inject, written as <participant>@<round>[:<votes sent>][h]
+    The participant, numbered from 0 in joining order, crashes in the given round after sending its votes to that many
+    of the others, or to all of them if no number is given
+    Its connections close so the others notice at once, unless h is given, in which case it hangs and is only noticed by timeouts
+     */
+    private static class Crash {
+
+        final int round;
+        final int afterSending;
+        final boolean hang;
+
+        Crash(int round, int afterSending, boolean hang) {
+            this.round = round;
+            this.afterSending = afterSending;
+            this.hang = hang;
+        }
+
+        static Map<Integer, Crash> parse(String crashes, int parts) {
+            Map<Integer, Crash> parsed = new HashMap<>();
+            List<String> specs = new ArrayList<>(Arrays.asList(crashes.split(",")));
+            specs.removeIf(String::isEmpty);
+            for (String spec : specs) {
+                boolean hang = spec.endsWith("h");
+                String[] at = (hang ? spec.substring(0, spec.length() - 1) : spec).split("[@:]");
+                int participant = Integer.parseInt(at[0].trim());
+                if (participant < 0 || participant >= parts || at.length < 2) {
+                    throw new IllegalArgumentException("Bad crash " + spec);
+                }
+                int afterSending = at.length > 2 ? Integer.parseInt(at[2].trim()) : parts - 1;
+                parsed.put(participant, new Crash(Integer.parseInt(at[1].trim()), afterSending, hang));
+            }
+            return parsed;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/*
+The transport of separate processes, with a TCP socket for every connection, all on this host
+ */
+class TcpTransport implements Transport {
+
+    static final TcpTransport INSTANCE = new TcpTransport();
+
+    private TcpTransport() {
+    }
+
+    @Override
+    public Listener listen(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        return new Listener() {
+            @Override
+            public Connection accept(int timeoutMillis) throws IOException {
+                serverSocket.setSoTimeout(timeoutMillis);
+                return new SocketConnection(serverSocket.accept());
+            }
+
+            @Override
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    @Override
+    public Connection connect(int port, int timeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLocalHost(), port), timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new SocketConnection(socket);
+    }
+
+    private static class SocketConnection implements Connection {
+
+        private final Socket socket;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public int getPort() {
+            return socket.getPort();
+        }
+
+        @Override
+        public void setSoTimeout(int timeoutMillis) throws IOException {
+            socket.setSoTimeout(timeoutMillis);
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) throws IOException {
+            socket.setTcpNoDelay(on);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/*
+Parses the votes of a text VOTE line straight from its bytes
+Gives the same tokens as Coordinator.getData, i.e. '<', '>' and ',' are dropped and tokens are split on spaces,
+but hands each (port, option id) pair to a VoteSink without allocating anything once its buffers have grown
+ */
+class TextVoteParser {
+
+    private static final int VOTE_FOR_LENGTH = Message.VOTE_FOR.length();
+
+    private final OptionDictionary options;
+    //The current option token with '<', '>' and ',' removed
+    private byte[] token = new byte[32];
+
+    TextVoteParser(OptionDictionary options) {
+        this.options = options;
+    }
+
+    /*
+    Parses line[from, to), which starts with the VOTE protocol name, returning how many votes were found
+    A VOTE_FOR line is parsed the same way once its instance ID has been skipped
+     */
+    int parse(byte[] line, int from, int to, VoteSink sink) {
+        int i = skipToken(line, from, to);
+        if (i - from == VOTE_FOR_LENGTH) {
+            i = skipToken(line, skipSpaces(line, i, to), to);
+        }
+        int votes = 0;
+        while (true) {
+            i = skipSpaces(line, i, to);
+            if (i == to) {
+                return votes;
+            }
+            int port = 0;
+            boolean digits = false;
+            for (; i < to && line[i] != ' '; i++) {
+                byte b = line[i];
+                if (b >= '0' && b <= '9') {
+                    port = port * 10 + (b - '0');
+                    digits = true;
+                } else if (!isDropped(b)) {
+                    throw new NumberFormatException("Invalid port in VOTE message");
+                }
+            }
+            if (!digits) {
+                continue;
+            }
+
+            i = skipSpaces(line, i, to);
+            int length = 0;
+            for (; i < to && line[i] != ' '; i++) {
+                if (!isDropped(line[i])) {
+                    if (length == token.length) {
+                        token = Arrays.copyOf(token, length * 2);
+                    }
+                    token[length++] = line[i];
+                }
+            }
+            if (length == 0) {
+                throw new IllegalArgumentException("Missing option in VOTE message");
+            }
+            sink.vote(port, options.getId(token, 0, length));
+            votes++;
+        }
+    }
+
+    private static boolean isDropped(byte b) {
+        return b == '<' || b == '>' || b == ',';
+    }
+
+    private static int skipToken(byte[] line, int i, int to) {
+        while (i < to && line[i] != ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /*
+    Skips spaces, and any token made only of dropped characters, which getData would have turned into an empty token
+     */
+    private static int skipSpaces(byte[] line, int i, int to) {
+        while (i < to && (line[i] == ' ' || isDropped(line[i]))) {
+            i++;
+        }
+        return i;
+    }
+}
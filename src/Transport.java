@@ -0,0 +1,66 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+How the coordinator and the participants reach each other: listening on a port, connecting to one and the streams of
+every connection, which all messages are read from and written to
+TcpTransport uses sockets on this host and InMemoryTransport joins nodes running in the same JVM through queues,
+chosen with -Dtransport=tcp (the default) or -Dtransport=memory
+ */
+interface Transport {
+
+    /*
+    Starts listening for connections on a port
+     */
+    Listener listen(int port) throws IOException;
+
+    /*
+    Connects to the node listening on a port, giving up after the timeout
+     */
+    Connection connect(int port, int timeoutMillis) throws IOException;
+
+    /*
+    The transport named by the transport system property
+     */
+    static Transport fromProperties() {
+        String name = System.getProperty("transport", "tcp");
+        switch (name.toLowerCase()) {
+            case "tcp":
+                return TcpTransport.INSTANCE;
+            case "memory":
+                return InMemoryTransport.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown transport " + name);
+        }
+    }
+
+    interface Listener extends Closeable {
+
+        /*
+        Waits for the next connection, throwing SocketTimeoutException after the timeout, or waiting forever if it is 0
+        Once the listener has been closed this throws SocketException
+         */
+        Connection accept(int timeoutMillis) throws IOException;
+    }
+
+    interface Connection extends Closeable {
+
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+
+        /*
+        The port at the other end of the connection, as used in the logs
+         */
+        int getPort();
+
+        /*
+        How long a read may block before throwing SocketTimeoutException, 0 to block forever
+         */
+        void setSoTimeout(int timeoutMillis) throws IOException;
+
+        void setTcpNoDelay(boolean on) throws IOException;
+    }
+}
@@ -3,12 +3,53 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Sends log messages to the Logger process over one long-lived UDP socket.
+ * Every datagram carries a sequence number and up to logger.window datagrams may be unacknowledged at once,
+ * the Logger process replies with cumulative and selective ACKs and lost datagrams are retransmitted.
+ * Every datagram also carries the lowest sequence number still unacknowledged, so the Logger process
+ * stops waiting for any datagram below it that was given up on.
+ */
 public class UDPLoggerClient {
 
+    //The most times a datagram is retransmitted before it is given up on
+    private static final int MAX_RETRANSMITS = 4;
+    private static final int MIN_RTO = 5;
+    private static final int MAX_DATAGRAM = 65507;
+
     private final int loggerServerPort;
     private final int processId;
     private final int timeout;
+    private final int windowSize;
+    //Identifies this client's sequence numbers, so the Logger process can tell it apart from an earlier socket on the same port
+    private final long session = System.nanoTime();
+
+    private DatagramSocket socket;
+    private Thread ackReceiver;
+
+    //Guards everything below
+    private final Object lock = new Object();
+    //Datagrams sent but not yet acknowledged, indexed by sequence number modulo the window size
+    private Pending[] window;
+    //The lowest sequence number not yet acknowledged
+    private long base = 1;
+    private long nextSeq = 1;
+    private long lost;
+    private long lostReported;
+
+    //Smoothed round trip time and its variation, in milliseconds
+    private double srtt = -1;
+    private double rttvar;
+    private long rto;
+
+    //The acknowledgement latency and retransmission counts, if recorded
+    private final Histogram ackTime;
+    private final LongAdder retransmitCount;
+    private final LongAdder lostCount;
 
     /**
      * @param loggerServerPort the UDP port where the Logger process is listening o
@@ -16,9 +57,24 @@ public class UDPLoggerClient {
      * @param timeout the timeout in milliseconds for this process
      */
     public UDPLoggerClient(int loggerServerPort, int processId, int timeout) {
+        this(loggerServerPort, processId, timeout, null);
+    }
+
+    /**
+     * @param loggerServerPort the UDP port where the Logger process is listening o
+     * @param processId the ID of the Participant/Coordinator, i.e. the TCP port where the Participant/Coordinator is listening on
+     * @param timeout the timeout in milliseconds for this process
+     * @param metrics the metrics of the process, where acknowledgement latency and retransmissions are recorded, or null
+     */
+    UDPLoggerClient(int loggerServerPort, int processId, int timeout, Metrics metrics) {
+        this.ackTime = metrics == null ? null : metrics.histogram("log.ack.us");
+        this.retransmitCount = metrics == null ? null : metrics.counter("log.retransmits");
+        this.lostCount = metrics == null ? null : metrics.counter("log.lost");
         this.loggerServerPort = loggerServerPort;
         this.processId = processId;
         this.timeout = timeout;
+        this.windowSize = Integer.getInteger("logger.window", 64);
+        this.rto = timeout;
     }
 
     public int getLoggerServerPort() {
@@ -37,29 +93,225 @@ public class UDPLoggerClient {
      * Sends a log message to the Logger process
      *
      * @param message the log message
-     * @throws IOException
+     * @throws IOException if the socket fails, or if earlier messages were given up on after being retransmitted
      */
 	public void logToServer(String message) throws IOException {
-        DatagramSocket socket = new DatagramSocket();
-        socket.setSoTimeout(timeout);
+        send(processId + " " + message);
+	}
 
-        int count = 0;
-        while(true) {
-            try {
-                byte[] buffer = (processId + " " + message).getBytes();
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, InetAddress.getLocalHost(), loggerServerPort);
-                socket.send(packet);
-                String received = "";
-                while(!received.equals("ACK")){
-                    packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    received = new String(packet.getData(), 0, packet.getLength());
+    /**
+     * Sends several log messages to the Logger process in a single datagram, one message per line
+     *
+     * @param messages the log messages
+     * @throws IOException if the socket fails, or if earlier messages were given up on after being retransmitted
+     */
+    public void logToServer(List<String> messages) throws IOException {
+        StringBuilder batch = new StringBuilder();
+        for (String message : messages) {
+            if (batch.length() > 0)
+                batch.append('\n');
+            batch.append(processId).append(' ').append(message);
+        }
+        send(batch.toString());
+    }
+
+    /**
+     * Waits until every datagram sent has been acknowledged or given up on, or until one timeout has passed
+     */
+    public void flush() {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            long wait;
+            while (base < nextSeq && (wait = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
+            }
+        }
+    }
+
+    /*
+    Waits for room in the window, then sends the payload under the next sequence number
+     */
+    private void send(String payload) throws IOException {
+        open();
+        Pending pending;
+        DatagramPacket packet;
+        synchronized (lock) {
+            while (nextSeq - base >= windowSize) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for the logger server");
+                }
+            }
+            long seq = nextSeq++;
+            pending = new Pending(seq, payload.getBytes());
+            window[(int) (seq % windowSize)] = pending;
+            pending.sentAt = System.currentTimeMillis();
+            pending.firstSentNanos = System.nanoTime();
+            packet = packetFor(pending);
+        }
+        try {
+            socket.send(packet);
+        } catch (PortUnreachableException e) {
+            //The logger server is not up yet, the datagram is retransmitted like any other loss
+        }
+
+        synchronized (lock) {
+            if (lost > lostReported) {
+                long newlyLost = lost - lostReported;
+                lostReported = lost;
+                throw new IOException(newlyLost + " log messages were not acknowledged by the logger server");
+            }
+        }
+    }
+
+    /*
+    Opens the socket and starts the thread that handles ACKs and retransmissions, the first time anything is sent
+     */
+    private synchronized void open() throws IOException {
+        if (socket != null)
+            return;
+        window = new Pending[windowSize];
+        socket = new DatagramSocket();
+        socket.connect(InetAddress.getLocalHost(), loggerServerPort);
+        socket.setSoTimeout(MIN_RTO);
+        ackReceiver = new Thread(this::receiveAcks, "logger-acks-" + processId);
+        ackReceiver.setDaemon(true);
+        ackReceiver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+    /*
+    Run by the ACK thread, applies every ACK received and retransmits any datagram that has been unacknowledged for too long
+     */
+    private void receiveAcks() {
+        byte[] buffer = new byte[1024];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.setSoTimeout((int) Math.max(MIN_RTO, rto / 2));
+                socket.receive(packet);
+                applyAck(new String(packet.getData(), 0, packet.getLength()));
+            } catch (SocketTimeoutException | PortUnreachableException e) {
+                //Falls through to the retransmission check
+            } catch (IOException e) {
                 return;
-            } catch (SocketTimeoutException e) {
-                count++;
-                if (count == 4) throw new IOException();
             }
+            retransmit();
         }
-	}
+    }
+
+    /*
+    Parses an ACK of the form "ACK cumulative [selective...]"
+     */
+    private void applyAck(String ack) {
+        String[] parts = ack.split(" ");
+        if (parts.length < 2 || !parts[0].equals("ACK"))
+            return;
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            long cumulative = Long.parseLong(parts[1]);
+            for (long seq = base; seq <= cumulative && seq < nextSeq; seq++)
+                acknowledge(seq, now);
+            for (int i = 2; i < parts.length; i++)
+                acknowledge(Long.parseLong(parts[i]), now);
+
+            while (base < nextSeq && window[(int) (base % windowSize)] == null)
+                base++;
+            lock.notifyAll();
+        }
+    }
+
+    private void acknowledge(long seq, long now) {
+        if (seq < base || seq >= nextSeq)
+            return;
+        int slot = (int) (seq % windowSize);
+        Pending pending = window[slot];
+        if (pending == null)
+            return;
+        //Only datagrams sent once give a true round trip time
+        if (pending.retransmits == 0) {
+            updateRto(now - pending.sentAt);
+            if (ackTime != null)
+                Metrics.recordSince(ackTime, pending.firstSentNanos);
+        }
+        window[slot] = null;
+    }
+
+    /*
+    Estimates the retransmission timeout from the measured round trip times, never more than the process timeout
+     */
+    private void updateRto(long rtt) {
+        if (srtt < 0) {
+            srtt = rtt;
+            rttvar = rtt / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+            srtt = 0.875 * srtt + 0.125 * rtt;
+        }
+        rto = Math.min(timeout, Math.max(MIN_RTO, (long) (srtt + 4 * rttvar)));
+    }
+
+    private void retransmit() {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            for (long seq = base; seq < nextSeq; seq++) {
+                Pending pending = window[(int) (seq % windowSize)];
+                if (pending == null || now - pending.sentAt < Math.min(timeout, rto << pending.retransmits))
+                    continue;
+                if (pending.retransmits == MAX_RETRANSMITS) {
+                    window[(int) (seq % windowSize)] = null;
+                    lost++;
+                    if (lostCount != null)
+                        lostCount.increment();
+                    continue;
+                }
+                pending.retransmits++;
+                if (retransmitCount != null)
+                    retransmitCount.increment();
+                pending.sentAt = now;
+                try {
+                    socket.send(packetFor(pending));
+                } catch (IOException ignored) {
+                }
+            }
+            while (base < nextSeq && window[(int) (base % windowSize)] == null)
+                base++;
+            lock.notifyAll();
+        }
+    }
+
+    /*
+    Builds the datagram "#session seq base" followed by the payload, with base as it is now, so a retransmission passes on
+    anything given up on since the datagram was first sent
+     */
+    private DatagramPacket packetFor(Pending pending) {
+        byte[] header = ("#" + session + " " + pending.seq + " " + base + "\n").getBytes();
+        byte[] data = Arrays.copyOf(header, Math.min(MAX_DATAGRAM, header.length + pending.payload.length));
+        System.arraycopy(pending.payload, 0, data, header.length, data.length - header.length);
+        return new DatagramPacket(data, data.length);
+    }
+
+    /*
+    A datagram that has been sent but not acknowledged
+     */
+    private static class Pending {
+        final long seq;
+        final byte[] payload;
+        long sentAt;
+        long firstSentNanos;
+        int retransmits;
+
+        Pending(long seq, byte[] payload) {
+            this.seq = seq;
+            this.payload = payload;
+        }
+    }
 }
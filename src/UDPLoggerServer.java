@@ -1,13 +1,36 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class UDPLoggerServer {
+    //Whether every message received is also printed to the console
+    private static final boolean ECHO = Boolean.parseBoolean(System.getProperty("logger.echo", "true"));
+    //The most datagrams read in one go before they are handed to the writer thread
+    private static final int RECEIVE_BATCH = Integer.getInteger("logger.receiveBatch", 256);
+    private static final int RECEIVE_BUFFER_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_DATAGRAM = 65507;
+    //The most sequence numbers listed in one selective ACK
+    private static final int MAX_SELECTIVE_ACKS = 64;
+    //How far ahead of the cumulative ACK a sequence number may be before it is ignored
+    private static final int MAX_REORDERING = 1 << 16;
+
     private int port;
-    //private List<ClientListener> listeners = new ArrayList<>();
+
+    //Batches of received datagrams waiting to be written to the log file
+    private final BlockingQueue<List<Received>> toWrite = new LinkedBlockingQueue<>();
+
+    //What has been received from every client that numbers its datagrams
+    private final Map<SocketAddress, SenderWindow> senders = new HashMap<>();
 
     public static void main(String[] args){
         new UDPLoggerServer(args[0]);
@@ -22,25 +45,195 @@ public class UDPLoggerServer {
 
     }
 
+    /*
+    Receives datagrams in batches on a single channel, acknowledging each one as it is read
+    Numbered datagrams get a cumulative and selective ACK and are only passed on the first time they arrive
+    Their header may also name the lowest sequence number the client still waits on, everything below which is settled
+    Decoding the messages and writing them out is left to the writer thread
+     */
     private void startListening() throws IOException {
-        PrintStream ps = new PrintStream("logger_server_" + System.currentTimeMillis() + ".log");
-        String[] data;
+        PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream("logger_server_" + System.currentTimeMillis() + ".log"), 1 << 16), false);
+        Thread writer = new Thread(() -> writeMessages(ps), "logger-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ps::flush));
+
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        Selector selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        ByteBuffer ack = ByteBuffer.allocateDirect(32 + 21 * MAX_SELECTIVE_ACKS);
+        byte[] plainAck = "ACK".getBytes();
 
-        DatagramSocket socket = new DatagramSocket(port);
-        byte[] buffer = new byte[256];
         while (true) {
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            socket.receive(packet);
-
-            String received = new String(packet.getData(), 0, packet.getLength());
-            System.out.println(received);
-            data = received.split(" ", 2);
-            ps.println(data[0] + " " + System.currentTimeMillis() + " " + data[1]);
-
-            InetAddress address = packet.getAddress();
-            int port = packet.getPort();
-            packet = new DatagramPacket("ACK".getBytes(), "ACK".getBytes().length, address, port);
-            socket.send(packet);
+            selector.select();
+            selector.selectedKeys().clear();
+
+            List<Received> batch = new ArrayList<>();
+            SocketAddress sender;
+            while (batch.size() < RECEIVE_BATCH && (sender = channel.receive(buffer)) != null) {
+                buffer.flip();
+                ack.clear();
+                boolean isNew = true;
+                if (buffer.hasRemaining() && buffer.get(0) == '#') {
+                    buffer.get();
+                    long session = readNumber(buffer);
+                    long seq = readNumber(buffer);
+                    //Clients that do not send their window base end the header after the sequence number
+                    long base = buffer.get(buffer.position() - 1) == ' ' ? readNumber(buffer) : 0;
+                    SenderWindow window = senders.get(sender);
+                    if (window == null || window.session != session) {
+                        window = new SenderWindow(session);
+                        senders.put(sender, window);
+                    }
+                    window.settledBelow(base);
+                    isNew = window.receive(seq);
+                    window.writeAck(ack);
+                } else {
+                    ack.put(plainAck);
+                }
+                if (isNew) {
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    batch.add(new Received(System.currentTimeMillis(), data));
+                }
+                buffer.clear();
+
+                ack.flip();
+                channel.send(ack, sender);
+            }
+            if (!batch.isEmpty()) {
+                toWrite.add(batch);
+            }
+        }
+    }
+
+    /*
+    Reads a decimal number and the single separator after it
+     */
+    private static long readNumber(ByteBuffer buffer) {
+        long n = 0;
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b < '0' || b > '9')
+                break;
+            n = n * 10 + (b - '0');
+        }
+        return n;
+    }
+
+    private static void putNumber(ByteBuffer buffer, long n) {
+        if (n >= 10)
+            putNumber(buffer, n / 10);
+        buffer.put((byte) ('0' + n % 10));
+    }
+
+    /*
+    Run by the writer thread, writes every received message to the log file and optionally the console
+     */
+    private void writeMessages(PrintStream ps) {
+        List<List<Received>> batches = new ArrayList<>();
+        String[] data;
+        try {
+            while (true) {
+                batches.add(toWrite.take());
+                toWrite.drainTo(batches);
+                for (List<Received> batch : batches) {
+                    for (Received received : batch) {
+                        //A datagram may carry a batch of messages, one per line
+                        for (String message : new String(received.data).split("\n")) {
+                            if (ECHO) System.out.println(message);
+                            data = message.split(" ", 2);
+                            if (data.length == 2)
+                                ps.println(data[0] + " " + received.time + " " + data[1]);
+                        }
+                    }
+                }
+                batches.clear();
+                ps.flush();
+            }
+        } catch (InterruptedException e) {
+            ps.flush();
+        }
+    }
+
+    /*
+    The sequence numbers received from one client socket
+     */
+    private static class SenderWindow {
+        final long session;
+        //Every sequence number up to and including this one has been received
+        long cumulative;
+        //Bit i is set if cumulative + 1 + i has been received
+        BitSet above = new BitSet();
+
+        SenderWindow(long session) {
+            this.session = session;
+        }
+
+        /*
+        Records a sequence number, returning false if it has been seen before
+         */
+        boolean receive(long seq) {
+            if (seq <= cumulative || seq - cumulative > MAX_REORDERING)
+                return false;
+            int offset = (int) (seq - cumulative - 1);
+            if (above.get(offset))
+                return false;
+            above.set(offset);
+            advance(above.nextClearBit(0));
+            return true;
+        }
+
+        /*
+        Stops waiting for every sequence number below base, which the client has had acknowledged or has given up on
+        Without this a datagram given up on would hold the cumulative ACK back for good
+         */
+        void settledBelow(long base) {
+            if (base - 1 > cumulative) {
+                advance(base - 1 - cumulative);
+                advance(above.nextClearBit(0));
+            }
+        }
+
+        /*
+        Moves the cumulative ACK forward by the given number of sequence numbers
+         */
+        private void advance(long by) {
+            if (by <= 0)
+                return;
+            cumulative += by;
+            above = by >= above.length() ? new BitSet() : above.get((int) by, above.length());
+        }
+
+        /*
+        Writes "ACK cumulative" followed by any sequence numbers received beyond it
+         */
+        void writeAck(ByteBuffer ack) {
+            ack.put((byte) 'A').put((byte) 'C').put((byte) 'K').put((byte) ' ');
+            putNumber(ack, cumulative);
+            int listed = 0;
+            for (int i = above.nextSetBit(0); i >= 0 && listed < MAX_SELECTIVE_ACKS; i = above.nextSetBit(i + 1), listed++) {
+                ack.put((byte) ' ');
+                putNumber(ack, cumulative + 1 + i);
+            }
+        }
+    }
+
+    /*
+    A datagram as it was received, with the time it arrived
+     */
+    private static class Received {
+        final long time;
+        final byte[] data;
+
+        Received(long time, byte[] data) {
+            this.time = time;
+            this.data = data;
         }
     }
 
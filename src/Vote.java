@@ -3,10 +3,13 @@ public class Vote {
 
     private final int participantPort;
     private final String vote;
+    //The index of the vote in this participant's table of options
+    private final int optionId;
 
-    public Vote(int participantPort, String vote) {
+    public Vote(int participantPort, String vote, int optionId) {
         this.participantPort = participantPort;
         this.vote = vote;
+        this.optionId = optionId;
     }
 
     public int getParticipantPort() {
@@ -17,6 +20,34 @@ public class Vote {
         return vote;
     }
 
+    public int getOptionId() {
+        return optionId;
+    }
+
+    /*
+    The participant port and option packed into one long, unique for every distinct vote
+     */
+    public long getKey() {
+        return key(participantPort, optionId);
+    }
+
+    public static long key(int participantPort, int optionId) {
+        return ((long) participantPort << 32) | (optionId & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Vote)) return false;
+        Vote other = (Vote) o;
+        return participantPort == other.participantPort && vote.equals(other.vote);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * participantPort + vote.hashCode();
+    }
+
     @Override
     public String toString() {
         return "<" + participantPort + ", " + vote + ">";
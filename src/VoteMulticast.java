@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+Sends the VOTE messages of a participant once a round to a UDP multicast group on the loopback interface,
+instead of once to every other participant, and hands every packet the others send to a receiver
+
+Every packet is the port of its sender, the instance and the round, each an int, followed by the message exactly as it
+would have been written to a connection. The round lets a receiver drop duplicates and notice missing rounds,
+which it asks the sender for again over their TCP connection (see Participant)
+
+Started with -Dconsensus.dissemination=multicast, on the group set by multicast.group and multicast.port
+ */
+class VoteMulticast {
+
+    static final boolean ENABLED = "multicast".equals(System.getProperty("consensus.dissemination", "mesh"));
+
+    private static final String GROUP = System.getProperty("multicast.group", "239.255.42.99");
+    private static final int HEADER_BYTES = 12;
+    private static final int MAX_DATAGRAM = 65507;
+    private static final int RECEIVE_BUFFER_BYTES = 4 << 20;
+
+    /*
+    Called on the receiving thread for every packet another participant sends
+     */
+    interface Receiver {
+        void packetReceived(int senderPort, int instance, int round, byte[] message, int offset, int length);
+    }
+
+    private final int thisPort;
+    private final InetAddress group;
+    private final int groupPort;
+    private final MulticastSocket socket;
+
+    //Every message sent, by instance and then round, so any of them can be sent again
+    private final TreeMap<Integer, List<byte[]>> sent = new TreeMap<>();
+
+    VoteMulticast(int thisPort, int groupPort, Receiver receiver) throws IOException {
+        this.thisPort = thisPort;
+        this.groupPort = groupPort;
+        group = InetAddress.getByName(GROUP);
+        NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+
+        socket = new MulticastSocket(groupPort);
+        socket.setNetworkInterface(loopback);
+        //Packets never leave this machine
+        socket.setTimeToLive(0);
+        socket.setReceiveBufferSize(RECEIVE_BUFFER_BYTES);
+        socket.joinGroup(new InetSocketAddress(group, groupPort), loopback);
+
+        Thread thread = new Thread(() -> receive(receiver), "multicast-" + thisPort);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getGroupPort() {
+        return groupPort;
+    }
+
+    /*
+    Sends a round's message to the group, returning false if it is too big for a datagram and has to be sent another way
+    Either way it is kept, to be sent again if asked for
+     */
+    boolean send(int instance, int round, byte[] message) throws IOException {
+        synchronized (sent) {
+            List<byte[]> rounds = sent.get(instance);
+            if (rounds == null) {
+                rounds = new ArrayList<>();
+                sent.put(instance, rounds);
+            }
+            rounds.add(message);
+        }
+        if (HEADER_BYTES + message.length > MAX_DATAGRAM) {
+            return false;
+        }
+        ByteBuffer packet = ByteBuffer.allocate(HEADER_BYTES + message.length);
+        packet.putInt(thisPort).putInt(instance).putInt(round).put(message);
+        socket.send(new DatagramPacket(packet.array(), packet.capacity(), group, groupPort));
+        return true;
+    }
+
+    /*
+    The messages sent for an instance from a round on, oldest first, or none if the instance has been forgotten
+     */
+    List<byte[]> sentSince(int instance, int round) {
+        synchronized (sent) {
+            List<byte[]> rounds = sent.get(instance);
+            if (rounds == null || round > rounds.size()) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(rounds.subList(round - 1, rounds.size()));
+        }
+    }
+
+    /*
+    Stops keeping the messages of every instance before the given one
+     */
+    void forgetBefore(int instance) {
+        synchronized (sent) {
+            sent.headMap(instance).clear();
+        }
+    }
+
+    private void receive(Receiver receiver) {
+        byte[] buffer = new byte[MAX_DATAGRAM];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (true) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Failed to receive multicast packet: " + e);
+                continue;
+            }
+            if (packet.getLength() < HEADER_BYTES) {
+                continue;
+            }
+            ByteBuffer header = ByteBuffer.wrap(buffer, 0, HEADER_BYTES);
+            int senderPort = header.getInt();
+            //Packets sent to the group are looped back to their sender too
+            if (senderPort != thisPort) {
+                receiver.packetReceived(senderPort, header.getInt(), header.getInt(), buffer, HEADER_BYTES, packet.getLength() - HEADER_BYTES);
+            }
+        }
+    }
+}
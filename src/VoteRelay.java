@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Collects the votes of every participant at the coordinator, so they can be relayed instead of sent to every other participant
+Participants then only connect to the coordinator: each sends its VOTE (or VOTE_FOR) there, and once every participant
+of an instance has sent its votes, been suspected of crashing, or the timeout passes, the coordinator sends each of them,
+as one message, every vote received, kept once per voter
+N participants need N connections and 2N messages a vote, instead of N(N-1) of each
+
+Every participant decides on exactly the votes sent back to it, its own included only if it arrived in time,
+so all of them decide on the same votes however many crash or are late, as long as the coordinator does not crash while sending them
+
+Started with -Dconsensus.dissemination=relay on the coordinator and every participant
+ */
+class VoteRelay {
+
+    static final boolean ENABLED = "relay".equals(System.getProperty("consensus.dissemination", "mesh"));
+
+    //Every voting option in the order sent in VOTE_OPTIONS, so option ids match those of the participants
+    private final OptionDictionary optionTable = new OptionDictionary();
+    private final int knownOptions;
+    private final TextVoteParser voteParser = new TextVoteParser(optionTable);
+
+    //The instances whose votes are still being collected, by ID
+    private final Map<Integer, Round> rounds = new HashMap<>();
+
+    VoteRelay(String[] options) {
+        for (String[] question : ConsensusInstance.splitQuestions(options)) {
+            for (String option : question) {
+                optionTable.getId(option);
+            }
+        }
+        knownOptions = optionTable.size();
+    }
+
+    /*
+    Starts collecting the votes of an instance from the given participants
+     */
+    synchronized void open(int instance, Collection<Integer> participants) {
+        rounds.put(instance, new Round(participants));
+    }
+
+    /*
+    Records the votes of a VOTE or VOTE_FOR message read from a participant,
+    unless the votes of its instance have already been relayed or it has sent them before
+     */
+    synchronized void votesReceived(int participantPort, MessageReader in, Message message) {
+        List<Vote> votes = new ArrayList<>();
+        if (message.isBinary()) {
+            int[] pairs = message.getValues();
+            for (int i = 0; i + 1 < pairs.length; i += 2) {
+                if (pairs[i + 1] < knownOptions) {
+                    votes.add(new Vote(pairs[i], optionTable.get(pairs[i + 1]), pairs[i + 1]));
+                }
+            }
+        } else {
+            in.parseVotes(voteParser, (port, optionId) -> votes.add(new Vote(port, optionTable.get(optionId), optionId)));
+        }
+
+        Round round = rounds.get(message.getInstance());
+        if (round == null || !round.barrier.arrive(participantPort)) {
+            return;
+        }
+        for (Vote vote : votes) {
+            round.votes.putIfAbsent(vote.getParticipantPort(), vote);
+        }
+    }
+
+    /*
+    Stops waiting for a participant in every instance still collecting votes
+     */
+    synchronized void suspect(int participantPort) {
+        for (Round round : rounds.values()) {
+            round.barrier.suspect(participantPort);
+        }
+    }
+
+    /*
+    Waits until every participant of an instance has sent its votes or been suspected, or for the timeout,
+    then stops collecting them and returns every vote received, any that arrive later being dropped
+     */
+    List<Vote> relay(int instance, long timeoutMillis) throws InterruptedException {
+        Round round;
+        synchronized (this) {
+            round = rounds.get(instance);
+        }
+        round.barrier.await(timeoutMillis);
+        synchronized (this) {
+            rounds.remove(instance);
+            round.barrier.close();
+            return new ArrayList<>(round.votes.values());
+        }
+    }
+
+    /*
+    The votes of one instance
+     */
+    private static class Round {
+        final RoundBarrier<Integer> barrier;
+
+        //Every vote received, once per voter, in the order they arrived
+        final Map<Integer, Vote> votes = new LinkedHashMap<>();
+
+        Round(Collection<Integer> participants) {
+            barrier = new RoundBarrier<>(participants);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+/*
+Receives parsed votes as primitives, so parsers can hand them over without creating any objects
+ */
+interface VoteSink {
+
+    void vote(int participantPort, int optionId);
+}